@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.snmp4j.Snmp;
+import org.snmp4j.TimeoutModel;
+import org.snmp4j.smi.Address;
+
+/**
+ * Keeps the retransmission timeout of each agent. The timeout follows the smoothed round-trip time and its
+ * variation as in TCP (RFC 6298), and doubles on every timed out request; retransmissions within a request back off
+ * exponentially through {@link BackoffTimeoutModel}. Agents which stop responding altogether are handled by the
+ * {@link DeviceHealthRegistry}.
+ */
+final class AgentTimeouts {
+    // Clock granularity of RFC 6298, so that a very steady agent still gets some slack
+    private static final long GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long initialRto;
+    private final long minRto;
+    private final long maxRto;
+    private final Cache<Address, AgentTimeout> agents;
+
+    AgentTimeouts() {
+        this(new SnmpConfig());
+    }
+
+    AgentTimeouts(SnmpConfig config) {
+        minRto = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getRtoMinMillis()));
+        maxRto = Math.max(minRto, TimeUnit.MILLISECONDS.toNanos(config.getRtoMaxMillis()));
+        initialRto = clamp(TimeUnit.MILLISECONDS.toNanos(config.getRtoInitialMillis()), minRto, maxRto);
+        agents = CacheBuilder.newBuilder()
+                .maximumSize(config.getTargetCacheSize())
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * Returns the timeout for the next request to the agent, in milliseconds.
+     */
+    long getTimeout(Address address) {
+        return TimeUnit.NANOSECONDS.toMillis(timeoutFor(address).getRto());
+    }
+
+    /**
+     * Learns from a response which arrived the given time after the request was sent with the given timeout.
+     */
+    void onResponse(Address address, long rttNanos, long timeoutMillis) {
+        timeoutFor(address).onResponse(rttNanos, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * Learns from a request which got no response despite all retransmissions.
+     */
+    void onTimeout(Address address) {
+        timeoutFor(address).onTimeout();
+    }
+
+    private AgentTimeout timeoutFor(Address address) {
+        try {
+            return agents.get(address, AgentTimeout::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to create agent timeout", e);
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private final class AgentTimeout {
+        // All in nanoseconds, srtt is 0 until the first sample
+        private long srtt;
+        private long rttvar;
+        private long rto = initialRto;
+
+        synchronized long getRto() {
+            return rto;
+        }
+
+        synchronized void onResponse(long rttNanos, long sentTimeout) {
+            // Karn: a response arriving after a retransmission may answer either copy, so it is no sample
+            if (rttNanos > sentTimeout) {
+                return;
+            }
+            if (srtt == 0) {
+                srtt = rttNanos;
+                rttvar = rttNanos / 2;
+            } else {
+                rttvar = (3 * rttvar + Math.abs(srtt - rttNanos)) / 4;
+                srtt = (7 * srtt + rttNanos) / 8;
+            }
+            rto = clamp(srtt + Math.max(GRANULARITY_NANOS, 4 * rttvar), minRto, maxRto);
+        }
+
+        synchronized void onTimeout() {
+            rto = clamp(rto * 2, minRto, maxRto);
+        }
+    }
+
+    /**
+     * Retransmission timeouts doubling with every retry of a request, up to a maximum. Applies to all requests sent
+     * through the {@link Snmp} session it is set on.
+     */
+    static final class BackoffTimeoutModel implements TimeoutModel {
+        private final long maxTimeout;
+
+        BackoffTimeoutModel(SnmpConfig config) {
+            maxTimeout = Math.max(1, config.getRtoMaxMillis());
+        }
+
+        @Override
+        public long getRetryTimeout(int retryCount, int totalNumberOfRetries, long targetTimeout) {
+            long timeout = targetTimeout;
+            for (int i = 0; i < retryCount && timeout < maxTimeout; i++) {
+                timeout *= 2;
+            }
+            return Math.min(Math.max(targetTimeout, maxTimeout), timeout);
+        }
+
+        @Override
+        public long getRequestTimeout(int totalNumberOfRetries, long targetTimeout) {
+            long total = 0;
+            for (int i = 0; i <= totalNumberOfRetries; i++) {
+                total += getRetryTimeout(i, totalNumberOfRetries, targetTimeout);
+            }
+            return total;
+        }
+    }
+}
@@ -8,12 +8,15 @@
 
 package org.opendaylight.snmp.plugin.internal;
 
-import static org.opendaylight.snmp.plugin.internal.SNMPImpl.DEFAULT_COMMUNITY;
-import static org.opendaylight.snmp.plugin.internal.SNMPImpl.MAXREPETITIONS;
-
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
@@ -45,27 +48,58 @@ public class AsyncGetHandler implements ResponseListener {
     private SettableFuture<RpcResult<SnmpGetOutput>> rpcSettableFuture;
     private SettableFuture<List<VariableBinding>> listSettableFuture;
     private final List<VariableBinding> variableBindings = new ArrayList<>();
-    private final List<Results> resultsArrayList = new ArrayList<>();
     private final Target target;
     private final PDU pdu;
+    private final List<OID> oids;
     private final OID oid;
-    private final Snmp snmp;
+    private final SnmpSession session;
+    private final BulkSizeTracker bulkSizeTracker;
+    private final WalkListener walkListener;
+    private final OID cursor;
+    private final Long maxResults;
+    private OID nextCursor;
+    private int resultCount;
+    private boolean buildResults;
+    private int chunkStart;
+    private int chunkSize;
+    private int roundTrips;
 
+    /**
+     * Creates a handler with a session of its own, which shares no per-agent state, such as learned GETBULK sizes,
+     * timeouts or request limits, with any other handler.
+     *
+     * @deprecated use {@link #AsyncGetHandler(SnmpGetInput, SnmpSession)} with the session shared by all
+     *             requests, such as {@link SNMPImpl#getSession()}
+     */
+    @Deprecated
     public AsyncGetHandler(SnmpGetInput getInput, Snmp snmp) {
+        this(getInput, new SnmpSession(snmp));
+    }
+
+    public AsyncGetHandler(SnmpGetInput getInput, SnmpSession session) {
+        this(getInput, session, null);
+    }
+
+    /**
+     * Creates a streaming GET-WALK, which hands the bindings of each response to the listener instead of collecting
+     * them, so that memory use is bounded by the size of one response rather than by the size of the subtree. The
+     * RPC result and the list response of a streaming walk carry no bindings.
+     */
+    public AsyncGetHandler(SnmpGetInput getInput, SnmpSession session, WalkListener walkListener) {
+        Preconditions.checkArgument(walkListener == null || SnmpGetType.GETWALK.equals(getInput.getGetType()),
+                "Only GET-WALK can be streamed");
         snmpGetInput = getInput;
-        this.snmp = snmp;
-        pdu = new PDU();
-        oid = new OID(snmpGetInput.getOid());
-        pdu.add(new VariableBinding(oid));
-        pdu.setMaxRepetitions(MAXREPETITIONS);
+        this.session = session;
+        this.bulkSizeTracker = session.getBulkSizeTracker();
+        this.walkListener = walkListener;
+        target = session.getTarget(getInput.getIpAddress(), getInput.getCommunity(), getInput);
+        pdu = SnmpSession.createPdu(target);
+        oids = requestedOids(getInput);
+        oid = oids.isEmpty() ? null : oids.get(0);
+        cursor = getInput.getCursor() != null ? new OID(getInput.getCursor()) : null;
+        maxResults = getInput.getMaxResults();
         pdu.setNonRepeaters(0);
 
-        String community = getInput.getCommunity();
-        if (community == null) {
-            community = DEFAULT_COMMUNITY;
-        }
-
-        target = SNMPImpl.getTargetForIp(getInput.getIpAddress(), community);
         if (snmpGetInput.getGetType().equals(SnmpGetType.GET)) {
             pdu.setType(PDU.GET);
         } else if (snmpGetInput.getGetType().equals(SnmpGetType.GETNEXT)) {
@@ -73,6 +107,30 @@ public class AsyncGetHandler implements ResponseListener {
         } else {
             pdu.setType(PDU.GETBULK);
         }
+        if (oid != null && target != null) {
+            if (isWalk()) {
+                pdu.add(new VariableBinding(cursor != null ? cursor : oid));
+                pdu.setMaxRepetitions(walkRepetitions());
+            } else {
+                fillChunk();
+            }
+        }
+    }
+
+    /**
+     * Returns the OIDs requested by the input, the single oid leaf first followed by the oids leaf-list.
+     */
+    static List<OID> requestedOids(SnmpGetInput getInput) {
+        List<OID> requested = new ArrayList<>();
+        if (getInput.getOid() != null) {
+            requested.add(new OID(getInput.getOid()));
+        }
+        if (getInput.getOids() != null) {
+            for (String oidString : getInput.getOids()) {
+                requested.add(new OID(oidString));
+            }
+        }
+        return requested;
     }
 
     @Override
@@ -82,41 +140,32 @@ public class AsyncGetHandler implements ResponseListener {
             Object source = responseEvent.getSource();
             ((Snmp)source).cancel(responseEvent.getRequest(), this);
 
-            boolean stop = false;
             PDU response = responseEvent.getResponse();
-            VariableBinding lastBinding = null;
-            if (response != null) {
-                for (VariableBinding binding : response.getVariableBindings()) {
-                    lastBinding = binding;
-                    if (binding.getOid() == null
-                            || binding.getOid().size() < oid.size()
-                            || oid.leftMostCompare(oid.size(), binding.getOid()) != 0
-                            || binding.getOid().compareTo(oid) < 0) {
-
-                        stop = true;
-                        break;
-                    } else {
-                        storeResult(binding);
-                    }
-                }
-                if (!snmpGetInput.getGetType().equals(SnmpGetType.GETWALK)) {
-                    stop = true;
-                }
-                if (response.getErrorStatus() != PDU.noError) {
-                    LOG.error("Response error: {}", response.getErrorStatusText());
-                    stop = true;
+            if (response == null && responseEvent.getError() != null) {
+                throw new IOException("Request failed", responseEvent.getError());
+            }
+            if (shouldRetrySmaller(response)) {
+                if (isWalk()) {
+                    pdu.setMaxRepetitions(walkRepetitions());
+                } else {
+                    fillChunk();
                 }
-            } else {
+                pdu.setRequestID(new Integer32(0));
+                sendRequest();
+                return;
+            }
+            if (response == null) {
                 throw new TimeoutException("Stopped due to timeout; results will be incomplete. Request: "
                         + responseEvent.getRequest());
             }
+            if (isBulk() && response.getErrorStatus() == PDU.noError) {
+                bulkSizeTracker.onResponse(target, response);
+            }
 
-            if (!stop && lastBinding != null) {
-                pdu.setRequestID(new Integer32(0));
-                pdu.set(0, lastBinding);
-                sendRequest();
+            if (isWalk()) {
+                onWalkResponse(response);
             } else {
-                setResult(null);
+                onChunkResponse(response);
             }
         } catch (TimeoutException | IOException e) {
             LOG.debug("Error in onResponse for {}", responseEvent, e);
@@ -124,23 +173,220 @@ public class AsyncGetHandler implements ResponseListener {
         }
     }
 
-    private void storeResult(VariableBinding variableBinding) {
-        variableBindings.add(variableBinding);
+    private void onWalkResponse(PDU response) throws IOException {
+        boolean stop = false;
+        VariableBinding lastBinding = null;
+        for (VariableBinding binding : response.getVariableBindings()) {
+            lastBinding = binding;
+            if (binding.getOid() == null
+                    || binding.getOid().size() < oid.size()
+                    || oid.leftMostCompare(oid.size(), binding.getOid()) != 0
+                    || binding.getOid().compareTo(oid) < 0) {
 
-        ResultsBuilder resultsBuilder = new ResultsBuilder();
+                stop = true;
+                break;
+            } else {
+                storeResult(binding);
+                if (isPageFull()) {
+                    // Let the caller resume after this binding
+                    nextCursor = binding.getOid();
+                    stop = true;
+                    break;
+                }
+            }
+        }
+        if (response.getErrorStatus() != PDU.noError) {
+            LOG.error("Response error: {}", response.getErrorStatusText());
+            stop = true;
+        }
 
-        String oidString = variableBinding.getOid().toString();
-        String val = variableBinding.getVariable().toString();
+        boolean more = !stop && lastBinding != null;
+        if (walkListener != null) {
+            deliverChunk(more, lastBinding);
+        } else {
+            continueWalk(more, lastBinding);
+        }
+    }
 
-        resultsBuilder.setOid(oidString).setValue(val);
-        resultsArrayList.add(resultsBuilder.build());
+    private void continueWalk(boolean more, VariableBinding lastBinding) throws IOException {
+        if (more) {
+            pdu.setRequestID(new Integer32(0));
+            pdu.set(0, lastBinding);
+            pdu.setMaxRepetitions(walkRepetitions());
+            sendRequest();
+        } else {
+            setResult(null);
+        }
+    }
+
+    /**
+     * Hands the bindings of the last response to the walk listener and continues the walk once it accepted them.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void deliverChunk(boolean more, VariableBinding lastBinding) {
+        List<VariableBinding> chunk = new ArrayList<>(variableBindings);
+        variableBindings.clear();
+
+        ListenableFuture<?> accepted;
+        if (chunk.isEmpty()) {
+            accepted = Futures.immediateFuture(null);
+        } else {
+            try {
+                accepted = walkListener.onBindings(chunk);
+            } catch (RuntimeException e) {
+                accepted = Futures.immediateFailedFuture(e);
+            }
+        }
+
+        Futures.addCallback(accepted, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                try {
+                    continueWalk(more, lastBinding);
+                } catch (IOException e) {
+                    LOG.debug("Error continuing walk of {}", oid, e);
+                    setResult(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                LOG.debug("Walk listener rejected bindings, stopping walk of {}", oid, cause);
+                setResult(cause);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Stores the bindings answering the current chunk of requested OIDs and sends the next chunk, if any. Binding i
+     * answers requested OID i modulo the chunk size, GETBULK responses repeating the requested OIDs row by row.
+     */
+    private void onChunkResponse(PDU response) throws IOException {
+        int size = response.size();
+        for (int i = 0; i < size; i++) {
+            VariableBinding binding = response.get(i);
+            OID requested = oids.get(chunkStart + i % chunkSize);
+            if (binding.getOid() != null && binding.getOid().startsWith(requested)) {
+                storeResult(binding);
+            }
+        }
+        if (response.getErrorStatus() != PDU.noError) {
+            LOG.error("Response error: {}", response.getErrorStatusText());
+            setResult(null);
+            return;
+        }
+
+        chunkStart += chunkSize;
+        if (chunkStart < oids.size()) {
+            fillChunk();
+            pdu.setRequestID(new Integer32(0));
+            sendRequest();
+        } else {
+            setResult(null);
+        }
+    }
+
+    /**
+     * Puts as many of the remaining requested OIDs into the PDU as the agent's learned response budget allows.
+     */
+    private void fillChunk() {
+        int budget = bulkSizeTracker.getBudget(target);
+        chunkSize = Math.max(1, Math.min(oids.size() - chunkStart, budget));
+        pdu.clear();
+        for (int i = chunkStart; i < chunkStart + chunkSize; i++) {
+            pdu.add(new VariableBinding(oids.get(i)));
+        }
+        if (isBulk()) {
+            pdu.setMaxRepetitions(bulkSizeTracker.getMaxRepetitions(target, chunkSize));
+        }
+    }
+
+    private boolean isPageFull() {
+        return maxResults != null && resultCount >= maxResults;
+    }
+
+    /**
+     * Returns the max-repetitions of the next walk request, which does not ask for more than the page has room for.
+     */
+    private int walkRepetitions() {
+        int repetitions = bulkSizeTracker.getMaxRepetitions(target, 1);
+        if (maxResults != null) {
+            repetitions = (int) Math.max(1, Math.min(repetitions, maxResults - resultCount));
+        }
+        return repetitions;
+    }
+
+    private boolean isWalk() {
+        return snmpGetInput.getGetType().equals(SnmpGetType.GETWALK);
+    }
+
+    private boolean isBulk() {
+        return pdu.getType() == PDU.GETBULK;
+    }
+
+    /**
+     * Checks whether the request should be repeated with fewer repetitions or OIDs after a tooBig error. A timeout is
+     * not retried, the request already went through all of its retransmissions.
+     */
+    private boolean shouldRetrySmaller(PDU response) {
+        if (response == null || response.getErrorStatus() != PDU.tooBig) {
+            return false;
+        }
+        int requested = isBulk() ? pdu.size() * pdu.getMaxRepetitions() : pdu.size();
+        if (requested <= 1) {
+            return false;
+        }
+        bulkSizeTracker.shrink(target, requested);
+        return true;
+    }
+
+    /**
+     * Returns the number of requests sent so far for this handler, including retries with fewer repetitions.
+     */
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Returns the max-repetitions of the last request sent.
+     */
+    public int getMaxRepetitions() {
+        return pdu.getMaxRepetitions();
+    }
+
+    private void storeResult(VariableBinding variableBinding) {
+        resultCount++;
+        variableBindings.add(variableBinding);
+    }
+
+    /**
+     * Converts the collected bindings to RPC results. Bindings are kept as received, their OIDs as arc arrays and
+     * their values typed, and only converted to strings here, once, for callers of {@link #getRpcResponse()}.
+     */
+    private List<Results> buildResults() {
+        List<Results> results = new ArrayList<>(variableBindings.size());
+        for (VariableBinding variableBinding : variableBindings) {
+            results.add(new ResultsBuilder()
+                    .setOid(variableBinding.getOid().toString())
+                    .setValue(variableBinding.getVariable().toString())
+                    .build());
+        }
+        return results;
     }
 
     private void setResult(Throwable failure) {
         boolean success = failure == null;
-        LOG.debug("Setting result, success={}", success);
+        LOG.debug("Setting result, success={}, round-trips={}, max-repetitions={}", success, roundTrips,
+                pdu.getMaxRepetitions());
+        if (isWalk()) {
+            bulkSizeTracker.onWalkComplete(roundTrips);
+        }
 
-        SnmpGetOutputBuilder getOutputBuilder = new SnmpGetOutputBuilder().setResults(resultsArrayList);
+        SnmpGetOutputBuilder getOutputBuilder = new SnmpGetOutputBuilder()
+                .setResults(buildResults ? buildResults() : Collections.emptyList());
+        if (nextCursor != null) {
+            getOutputBuilder.setNextCursor(nextCursor.toString());
+        }
 
         RpcResultBuilder<SnmpGetOutput> rpcResultBuilder = RpcResultBuilder.status(success);
         rpcResultBuilder.withResult(getOutputBuilder.build());
@@ -150,6 +396,18 @@ public class AsyncGetHandler implements ResponseListener {
         }
         rpcSettableFuture.set(rpcResultBuilder.build());
         listSettableFuture.set(variableBindings);
+        notifyWalkListener(failure);
+    }
+
+    private void notifyWalkListener(Throwable failure) {
+        if (walkListener == null) {
+            return;
+        }
+        if (failure == null) {
+            walkListener.onComplete();
+        } else {
+            walkListener.onFailure(failure);
+        }
     }
 
     private ErrorType getErrorType(Throwable ex) {
@@ -160,27 +418,75 @@ public class AsyncGetHandler implements ResponseListener {
     }
 
     private void sendRequest() throws IOException {
-        snmp.send(pdu, target, null, this);
+        roundTrips++;
+        session.send(pdu, target, this);
+    }
+
+    private String validateInput() {
+        if (oid == null) {
+            return "No OID requested";
+        }
+        if (target == null) {
+            return (UsmUsers.isV3(snmpGetInput) ? "Invalid agent address or SNMPv3 credentials for "
+                    : "Invalid agent address ") + snmpGetInput.getIpAddress();
+        }
+        if (isWalk() && oids.size() > 1) {
+            return "GET-WALK takes a single OID, use a table walk for several subtrees";
+        }
+        if (cursor != null && !cursor.startsWith(oid)) {
+            return "Cursor " + cursor + " is outside of the walked subtree " + oid;
+        }
+        if (maxResults != null && maxResults < 1) {
+            return "max-results must be at least 1";
+        }
+        return null;
     }
 
     public SettableFuture<RpcResult<SnmpGetOutput>> getRpcResponse() {
+        buildResults = true;
+        start();
+        return rpcSettableFuture;
+    }
+
+    /**
+     * Starts the request like {@link #getRpcResponse()}, but completes with the received bindings and does not
+     * convert them to RPC results.
+     */
+    public SettableFuture<List<VariableBinding>> getListResponse() {
+        start();
+        return listSettableFuture;
+    }
+
+    private void start() {
         rpcSettableFuture = SettableFuture.create();
         listSettableFuture = SettableFuture.create();
 
+        String invalidInput = validateInput();
+        if (invalidInput != null) {
+            IllegalArgumentException failure = new IllegalArgumentException(invalidInput);
+            listSettableFuture.setException(failure);
+            rpcSettableFuture.set(RpcResultBuilder.<SnmpGetOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, failure.getMessage(), failure).build());
+            notifyWalkListener(failure);
+            return;
+        }
+
         try {
             sendRequest();
+        } catch (DeviceHealthRegistry.DeviceDownException e) {
+            LOG.debug("Not sending GET request", e);
+            failStart(e);
         } catch (IOException e) {
             LOG.warn("Exception when sending GET request", e);
-            RpcResultBuilder<SnmpGetOutput> errorOutput = RpcResultBuilder.failed();
-            errorOutput.withError(RpcError.ErrorType.APPLICATION, "Error sending GET request", e);
-            rpcSettableFuture.set(errorOutput.build());
+            failStart(e);
         }
-
-        return rpcSettableFuture;
     }
 
-    public SettableFuture<List<VariableBinding>> getListResponse() {
-        getRpcResponse();
-        return listSettableFuture;
+    private void failStart(IOException e) {
+        RpcResultBuilder<SnmpGetOutput> errorOutput = RpcResultBuilder.failed();
+        errorOutput.withError(RpcError.ErrorType.TRANSPORT, "Error sending GET request: " + e.getMessage(), e);
+        rpcSettableFuture.set(errorOutput.build());
+        listSettableFuture.setException(e);
+        notifyWalkListener(e);
     }
 }
@@ -33,41 +33,59 @@ import org.snmp4j.smi.VariableBinding;
 public class AsyncSetHandler implements ResponseListener {
     private static final Logger LOG = LoggerFactory.getLogger(AsyncSetHandler.class);
     private SettableFuture<RpcResult<SnmpSetOutput>> rpcResultSettableFuture;
-    private final Snmp snmp4j;
+    private final SnmpSession session;
     private final SnmpSetInput snmpSetInput;
     private final Target target;
     private final OID oid;
     private PDU pdu;
 
 
+    /**
+     * Creates a handler with a session of its own, which shares no per-agent state, such as learned GETBULK sizes,
+     * timeouts or request limits, with any other handler.
+     *
+     * @deprecated use {@link #AsyncSetHandler(SnmpSetInput, SnmpSession)} with the session shared by all
+     *             requests, such as {@link SNMPImpl#getSession()}
+     */
+    @Deprecated
     public AsyncSetHandler(SnmpSetInput input, Snmp snmp) {
-        snmp4j = snmp;
-        snmpSetInput = input;
+        this(input, new SnmpSession(snmp));
+    }
 
-        String community = input.getCommunity();
-        if (community == null) {
-            community = SNMPImpl.DEFAULT_COMMUNITY;
-        }
+    public AsyncSetHandler(SnmpSetInput input, SnmpSession session) {
+        this.session = session;
+        snmpSetInput = input;
 
-        target = SNMPImpl.getTargetForIp(input.getIpAddress(), community);
+        target = session.getTarget(input.getIpAddress(), input.getCommunity(), input);
         oid  = new OID(input.getOid());
-        pdu = new PDU();
+        pdu = SnmpSession.createPdu(target);
         pdu.add(new VariableBinding(oid, new OctetString(input.getValue())));
         pdu.setType(PDU.SET);
     }
 
     private void sendSnmpSet() {
         try {
-            snmp4j.set(pdu, target, null, this);
+            session.send(pdu, target, this);
+        } catch (DeviceHealthRegistry.DeviceDownException e) {
+            LOG.debug("Not sending set", e);
+            rpcResultSettableFuture.set(RpcResultBuilder.<SnmpSetOutput>failed()
+                    .withError(RpcError.ErrorType.TRANSPORT, e.getMessage()).build());
         } catch (IOException e) {
             LOG.warn("Error sending set", e);
             rpcResultSettableFuture.set(RpcResultBuilder.<SnmpSetOutput>failed()
-                    .withError(RpcError.ErrorType.APPLICATION, e.getMessage()).build());
+                    .withError(RpcError.ErrorType.TRANSPORT, e.getMessage()).build());
         }
     }
 
     public SettableFuture<RpcResult<SnmpSetOutput>> getRpcResponse() {
         rpcResultSettableFuture = SettableFuture.create();
+        if (target == null) {
+            String message = UsmUsers.isV3(snmpSetInput) ? "Invalid agent address or SNMPv3 credentials for "
+                    : "Invalid agent address ";
+            rpcResultSettableFuture.set(RpcResultBuilder.<SnmpSetOutput>failed().withError(
+                    RpcError.ErrorType.APPLICATION, message + snmpSetInput.getIpAddress()).build());
+            return rpcResultSettableFuture;
+        }
         sendSnmpSet();
         return rpcResultSettableFuture;
     }
@@ -146,6 +164,7 @@ public class AsyncSetHandler implements ResponseListener {
                                     errorStatus, errorIndex, errorString));
                 }
             } else {
+                session.onSet(snmpSetInput.getIpAddress(), oid);
                 rpcResultBuilder = RpcResultBuilder.success(new SnmpSetOutputBuilder().build());
             }
 
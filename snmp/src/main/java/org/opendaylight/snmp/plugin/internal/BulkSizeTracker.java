@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Target;
+import org.snmp4j.smi.Address;
+
+/**
+ * Learns, per agent, how many varbinds fit into one GETBULK response. The estimate starts from a configured
+ * default, is shrunk quickly on tooBig errors, and follows the observed encoded size per varbind so that responses
+ * stay below the configured maximum response size, which defaults to a single unfragmented Ethernet frame.
+ */
+final class BulkSizeTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkSizeTracker.class);
+
+    // Message header, community and PDU fields around the varbind list
+    private static final int MESSAGE_OVERHEAD = 64;
+    // Encoded size assumed for a varbind of an agent no response was seen from yet
+    private static final int INITIAL_VARBIND_SIZE = 32;
+
+    private final int initialRepetitions;
+    private final int maxRepetitions;
+    private final int maxResponseSize;
+    private final Cache<Address, Budget> budgets;
+    private final LongAdder walks = new LongAdder();
+    private final LongAdder walkRoundTrips = new LongAdder();
+
+    BulkSizeTracker() {
+        this(new SnmpConfig());
+    }
+
+    BulkSizeTracker(SnmpConfig config) {
+        maxRepetitions = Math.max(1, config.getBulkMaxRepetitions());
+        initialRepetitions = Math.max(1, Math.min(config.getBulkInitialRepetitions(), maxRepetitions));
+        maxResponseSize = Math.max(MESSAGE_OVERHEAD * 2, config.getBulkMaxResponseSize());
+        budgets = CacheBuilder.newBuilder()
+                .maximumSize(config.getBulkTrackedAgents())
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * Returns the max-repetitions to use for a GETBULK carrying the given number of repeating varbinds. The varbind
+     * budget is shared between them, but never cut below the number of rows which fit into one response by their
+     * encoded size, so that a wide table is not read one row per request.
+     */
+    int getMaxRepetitions(Target target, int columns) {
+        Budget budget = budgetFor(target);
+        int width = Math.max(1, columns);
+        int rowsFitting = (maxResponseSize - MESSAGE_OVERHEAD) / (budget.varbindSize * width);
+        int floor = Math.min(Math.min(rowsFitting, budget.varbinds), Math.min(budget.ceiling, maxRepetitions) / width);
+        return Math.max(1, Math.max(budget.varbinds / width, floor));
+    }
+
+    /**
+     * Learns from a successful GETBULK response.
+     */
+    void onResponse(Target target, PDU response) {
+        int count = response.size();
+        if (count == 0) {
+            return;
+        }
+
+        int perVarbind = Math.max(1, (response.getBERLength() - MESSAGE_OVERHEAD + count - 1) / count);
+        int fit = clamp((maxResponseSize - MESSAGE_OVERHEAD) / perVarbind);
+        Budget budget = budgetFor(target);
+        budget.varbindSize = perVarbind;
+        // Shrink at once, grow gradually and never back to a size the agent refused
+        int next = fit < budget.varbinds ? fit : clamp((budget.varbinds * 3 + fit + 3) / 4);
+        budget.varbinds = Math.min(next, budget.ceiling);
+    }
+
+    /**
+     * Halves the budget after a tooBig error for a request which could return the given number of varbinds. That
+     * number becomes an upper bound for later growth, so that the next request is smaller.
+     */
+    void shrink(Target target, int requested) {
+        Budget budget = budgetFor(target);
+        budget.ceiling = Math.max(1, Math.min(budget.ceiling, requested - 1));
+        budget.varbinds = Math.max(1, Math.min(budget.varbinds, requested / 2));
+        LOG.debug("Reduced GETBULK size for {} to {} varbinds after a tooBig error for {}", target.getAddress(),
+                budget.varbinds, requested);
+    }
+
+    /**
+     * Returns the number of varbinds currently requested per GETBULK from the agent.
+     */
+    int getBudget(Target target) {
+        return budgetFor(target).varbinds;
+    }
+
+    /**
+     * Returns the number of varbinds currently requested per GETBULK from each agent a response was seen from.
+     */
+    Map<Address, Integer> getBudgets() {
+        Map<Address, Integer> current = new HashMap<>();
+        budgets.asMap().forEach((address, budget) -> current.put(address, budget.varbinds));
+        return current;
+    }
+
+    /**
+     * Records a walk which ended, successfully or not, after the given number of requests.
+     */
+    void onWalkComplete(int roundTrips) {
+        walks.increment();
+        walkRoundTrips.add(roundTrips);
+    }
+
+    /**
+     * Returns the number of walks which ended since startup.
+     */
+    long getWalkCount() {
+        return walks.sum();
+    }
+
+    /**
+     * Returns the number of requests sent by the walks which ended since startup, including retries after tooBig.
+     */
+    long getWalkRoundTrips() {
+        return walkRoundTrips.sum();
+    }
+
+    private Budget budgetFor(Target target) {
+        Address address = target.getAddress();
+        if (address == null) {
+            return new Budget(initialRepetitions);
+        }
+        try {
+            return budgets.get(address, () -> new Budget(initialRepetitions));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to create GETBULK budget", e);
+        }
+    }
+
+    private int clamp(int varbinds) {
+        return Math.max(1, Math.min(varbinds, maxRepetitions));
+    }
+
+    private static final class Budget {
+        private volatile int varbinds;
+        private volatile int ceiling = Integer.MAX_VALUE;
+        private volatile int varbindSize = INITIAL_VARBIND_SIZE;
+
+        Budget(int varbinds) {
+            this.varbinds = varbinds;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.collect.ImmutableMap;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.function.Function;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ieee.types.rev080522.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Counter32;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Counter64;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Gauge32;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.PhysAddress;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Timestamp;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Timeticks;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.InterfaceIndex;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.InterfaceIndexOrZero;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2.inet.address.mib.rev050204.InetAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Decodes the varbinds of a single table column into one setter of a generated builder. The setter is bound once
+ * through a {@link MethodHandle} and the SMI to YANG conversion is resolved once from the setter's parameter type,
+ * so decoding a binding costs one conversion and one direct setter call.
+ */
+final class ColumnDecoder<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnDecoder.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final BigInteger TWO_TO_64 = BigInteger.ONE.shiftLeft(64);
+
+    private static final Map<Class<?>, Function<Variable, Object>> CONVERTERS =
+            ImmutableMap.<Class<?>, Function<Variable, Object>>builder()
+            .put(Counter32.class, variable -> new Counter32(variable.toLong()))
+            .put(Counter64.class, variable -> new Counter64(unsignedBigInteger(variable.toLong())))
+            .put(MacAddress.class, variable -> new MacAddress(((OctetString) variable).toHexString(':')))
+            .put(Ipv4Address.class, variable -> new Ipv4Address(variable.toString()))
+            .put(Long.class, Variable::toLong)
+            .put(Integer.class, Variable::toInt)
+            .put(InterfaceIndexOrZero.class, variable -> new InterfaceIndexOrZero(variable.toInt()))
+            .put(InterfaceIndex.class, variable -> new InterfaceIndex(variable.toInt()))
+            .put(Timestamp.class, variable -> new Timestamp(variable.toLong()))
+            .put(Timeticks.class, variable -> new Timeticks(variable.toLong()))
+            .put(InetAddress.class, ColumnDecoder::toInetAddress)
+            .put(PhysAddress.class, variable -> new PhysAddress(variable.toString()))
+            .put(String.class, Variable::toString)
+            .put(Gauge32.class, variable -> new Gauge32(variable.toLong()))
+            .build();
+
+    private final String name;
+    private final OID column;
+    private final MethodHandle setter;
+    private final Function<Variable, Object> converter;
+
+    private ColumnDecoder(String name, OID column, MethodHandle setter, Function<Variable, Object> converter) {
+        this.name = name;
+        this.column = column;
+        this.setter = setter;
+        this.converter = converter;
+    }
+
+    /**
+     * Creates a decoder for an {@link org.opendaylight.snmp.OID}-annotated builder setter, or returns null if the
+     * setter's parameter type has no known conversion.
+     */
+    static <T> ColumnDecoder<T> forSetter(Method method, String oid) throws IllegalAccessException {
+        Class<?> objectType = method.getParameterTypes()[0];
+        Function<Variable, Object> converter = converterFor(objectType);
+        if (converter == null) {
+            LOG.debug("No conversion to {} for {}, column {} will be skipped", objectType, method.getName(), oid);
+            return null;
+        }
+
+        MethodHandle setter = MethodHandles.publicLookup().unreflect(method).asType(SETTER_TYPE);
+        String setterName = method.getName();
+        String name = Character.toLowerCase(setterName.charAt(3)) + setterName.substring(4);
+        return new ColumnDecoder<>(name, new OID(oid), setter, converter);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    OID getColumn() {
+        return column;
+    }
+
+    /**
+     * Converts the variable and sets it on the builder.
+     *
+     * @return true if the value was set
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    boolean decode(T builder, Variable variable) {
+        final Object value;
+        try {
+            value = converter.apply(variable);
+        } catch (RuntimeException e) {
+            LOG.debug("Error converting {} for {}", variable, name, e);
+            return false;
+        }
+        if (value == null) {
+            return false;
+        }
+
+        try {
+            setter.invokeExact((Object) builder, value);
+            return true;
+        } catch (Throwable e) {
+            LOG.debug("Error invoking setter for {} with {}", name, value, e);
+            return false;
+        }
+    }
+
+    /**
+     * Unsets the column on the builder, such as a value kept from an earlier read whose walk failed this time.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    void clear(T builder) {
+        try {
+            setter.invokeExact((Object) builder, (Object) null);
+        } catch (Throwable e) {
+            LOG.debug("Error clearing {}", name, e);
+        }
+    }
+
+    private static Function<Variable, Object> converterFor(Class<?> objectType) throws IllegalAccessException {
+        Function<Variable, Object> converter = CONVERTERS.get(objectType);
+        if (converter != null) {
+            return converter;
+        }
+
+        if (Enum.class.isAssignableFrom(objectType)) {
+            return enumConverter(objectType);
+        }
+
+        // Typedefs such as DisplayString or ObjectIdentifier wrap a string
+        try {
+            MethodHandle constructor = MethodHandles.publicLookup().findConstructor(objectType,
+                    MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            return variable -> invokeConstructor(constructor, variable.toString());
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Function<Variable, Object> enumConverter(Class<?> objectType) throws IllegalAccessException {
+        try {
+            Method forValue = objectType.getMethod("forValue", int.class);
+            if (Modifier.isStatic(forValue.getModifiers())) {
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(forValue)
+                        .asType(MethodType.methodType(Object.class, int.class));
+                return variable -> invokeForValue(handle, variable.toInt());
+            }
+        } catch (NoSuchMethodException e) {
+            LOG.debug("{} has no forValue(), falling back to ordinals", objectType);
+        }
+
+        Object[] constants = objectType.getEnumConstants();
+        return variable -> {
+            int ordinal = variable.toInt();
+            return ordinal >= 0 && ordinal < constants.length ? constants[ordinal] : null;
+        };
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private static Object invokeConstructor(MethodHandle constructor, String value) {
+        try {
+            return (Object) constructor.invokeExact(value);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Failed to construct value from " + value, e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private static Object invokeForValue(MethodHandle forValue, int value) {
+        try {
+            return (Object) forValue.invokeExact(value);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Failed to map enum value " + value, e);
+        }
+    }
+
+    private static Object toInetAddress(Variable variable) {
+        if (variable instanceof IpAddress) {
+            return new InetAddress(((IpAddress) variable).getInetAddress().getAddress());
+        }
+        return new InetAddress(((OctetString) variable).getValue());
+    }
+
+    static BigInteger unsignedBigInteger(long value) {
+        BigInteger result = BigInteger.valueOf(value);
+        return value >= 0 ? result : result.add(TWO_TO_64);
+    }
+}
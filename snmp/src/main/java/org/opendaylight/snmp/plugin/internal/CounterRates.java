@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Turns successive samples of Counter32 and Counter64 objects into deltas and rates, per agent, interface index and
+ * counter column. Counters are identified by a slot number, interned from a key packing an agent number, a column
+ * number and the interface index into a long, and their state is kept in long buffers indexed by slot, on or off the
+ * heap, about 64 bytes per counter with the key table. Updating a counter and reading its delta or rate allocates
+ * nothing. The counters of OIDs no poll job polls any more are dropped, and their slots reused; so is the number of
+ * an agent none of whose counters are left.
+ *
+ * <p>A Counter32 smaller than its previous sample is taken to have wrapped once. A Counter64 never wraps in practice,
+ * so a smaller sample is a discontinuity, as is a change of the interface's ifCounterDiscontinuityTime; neither
+ * yields a delta, the sample only becomes the base of the next one.
+ *
+ * <p>Up to 2^24 agents and 256 counter columns are told apart, as the key packs them into 24 and 8 bits. Samples of
+ * further agents or columns are dropped with a warning.
+ */
+final class CounterRates implements PollListener {
+    private static final Logger LOG = LoggerFactory.getLogger(CounterRates.class);
+
+    /**
+     * Returned as delta when there is none: on the first sample of a counter, and after a discontinuity.
+     */
+    static final long NO_DELTA = -1;
+
+    // IF-MIB::ifCounterDiscontinuityTime
+    static final OID IF_COUNTER_DISCONTINUITY_TIME = new OID("1.3.6.1.2.1.31.1.1.1.19");
+
+    private static final int MAX_DEVICES = 1 << 24;
+    private static final int MAX_COLUMNS = 1 << 8;
+    private static final long COUNTER32_MODULUS = 1L << 32;
+    private static final long NO_DISCONTINUITY = Long.MIN_VALUE;
+
+    private final boolean offHeap;
+    private final Map<String, Integer> deviceIds = new HashMap<>();
+    // Indexed by agent number: the slots the agent holds
+    private int[] deviceSlots = new int[16];
+    // Agent numbers no longer in use, reused before new ones
+    private int[] freeDeviceIds = new int[16];
+    private int freeDeviceCount;
+    private int nextDeviceId;
+    private final List<OID> columns = new ArrayList<>();
+    private final LongIntMap slots;
+    private int size;
+    // Slots of dropped counters, reused before new ones
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private boolean devicesFull;
+    private boolean columnsFull;
+    // Indexed by slot: the last sample, its System.nanoTime(), the delta and interval between the last two samples,
+    // and the discontinuity time of the interface at the last sample
+    private LongBuffer values;
+    private LongBuffer timestamps;
+    private LongBuffer deltas;
+    private LongBuffer intervals;
+    private LongBuffer discontinuities;
+
+    /**
+     * Creates an engine.
+     *
+     * @param offHeap keep the counter state in direct buffers rather than on the heap
+     */
+    CounterRates(int initialCapacity, boolean offHeap) {
+        int capacity = Math.max(16, initialCapacity);
+        this.offHeap = offHeap;
+        this.slots = new LongIntMap(capacity);
+        values = allocate(capacity);
+        timestamps = allocate(capacity);
+        deltas = allocate(capacity);
+        intervals = allocate(capacity);
+        discontinuities = allocate(capacity);
+    }
+
+    /**
+     * Returns the slot of a counter, assigning one if it has none yet.
+     *
+     * @param column the OID of the counter column, without the interface index
+     * @return the slot, or -1 if there are too many agents or columns to track the counter
+     */
+    synchronized int slot(String device, int ifIndex, OID column) {
+        int deviceId = deviceId(device);
+        int columnId = columnId(column);
+        return deviceId >= 0 && columnId >= 0 ? slot(deviceId, columnId, ifIndex) : -1;
+    }
+
+    /**
+     * Returns the slot of a counter, or -1 if it was never sampled.
+     */
+    synchronized int find(String device, int ifIndex, OID column) {
+        Integer deviceId = deviceIds.get(device);
+        int columnId = columns.indexOf(column);
+        if (deviceId == null || columnId < 0) {
+            return -1;
+        }
+        return slots.get(key(deviceId, columnId, ifIndex));
+    }
+
+    /**
+     * Returns the slot of the counter of the given object, its interface index being the last arc, or -1 if it was
+     * never sampled.
+     */
+    synchronized int find(String device, OID counter) {
+        Integer deviceId = deviceIds.get(device);
+        int columnId = findColumn(counter);
+        if (deviceId == null || columnId < 0) {
+            return -1;
+        }
+        return slots.get(key(deviceId, columnId, counter.last()));
+    }
+
+    /**
+     * Drops the counters of the given objects of the agent, their interface index being the last arc. Their slots
+     * are reused, and a later sample of them starts without a delta.
+     */
+    synchronized void remove(String device, Collection<OID> counters) {
+        Integer deviceId = deviceIds.get(device);
+        if (deviceId == null) {
+            return;
+        }
+        for (OID counter : counters) {
+            int columnId = findColumn(counter);
+            int slot = columnId >= 0 ? slots.remove(key(deviceId, columnId, counter.last())) : -1;
+            if (slot >= 0) {
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+                deviceSlots[deviceId]--;
+            }
+        }
+        releaseIfUnused(device, deviceId);
+    }
+
+    /**
+     * Records a sample of a counter.
+     *
+     * @param counter64 whether the counter is a Counter64, otherwise a Counter32 which may wrap
+     * @param discontinuityTime the interface's ifCounterDiscontinuityTime, or {@link Long#MIN_VALUE} if unknown
+     * @return the delta to the previous sample, or {@link #NO_DELTA}
+     */
+    synchronized long update(int slot, long value, boolean counter64, long timestampNanos, long discontinuityTime) {
+        Preconditions.checkElementIndex(slot, size);
+        long previousTimestamp = timestamps.get(slot);
+        long previousDiscontinuity = discontinuities.get(slot);
+        long delta = NO_DELTA;
+        if (previousTimestamp != 0 && (discontinuityTime == NO_DISCONTINUITY
+                || previousDiscontinuity == NO_DISCONTINUITY || discontinuityTime == previousDiscontinuity)) {
+            long previous = values.get(slot);
+            if (counter64) {
+                delta = Long.compareUnsigned(value, previous) >= 0 ? value - previous : NO_DELTA;
+            } else {
+                delta = value >= previous ? value - previous : value + COUNTER32_MODULUS - previous;
+            }
+        }
+        values.put(slot, value);
+        // 0 marks a counter without sample
+        timestamps.put(slot, timestampNanos != 0 ? timestampNanos : 1);
+        deltas.put(slot, delta);
+        intervals.put(slot, delta != NO_DELTA ? timestampNanos - previousTimestamp : 0);
+        discontinuities.put(slot, discontinuityTime);
+        return delta;
+    }
+
+    /**
+     * Returns the delta between the last two samples of the counter, or {@link #NO_DELTA}.
+     */
+    synchronized long getDelta(int slot) {
+        Preconditions.checkElementIndex(slot, size);
+        return deltas.get(slot);
+    }
+
+    /**
+     * Returns the rate of the counter between its last two samples, per second, or NaN if there is no delta.
+     */
+    synchronized double getRate(int slot) {
+        Preconditions.checkElementIndex(slot, size);
+        long delta = deltas.get(slot);
+        long interval = intervals.get(slot);
+        if (delta == NO_DELTA || interval <= 0) {
+            return Double.NaN;
+        }
+        // Unsigned, a Counter64 delta may exceed Long.MAX_VALUE
+        double unsignedDelta = delta >= 0 ? delta : delta + 0x1p64;
+        return unsignedDelta * 1e9 / interval;
+    }
+
+    /**
+     * Returns the number of counters tracked.
+     */
+    synchronized int size() {
+        return size - freeCount;
+    }
+
+    /**
+     * Returns the number of agents whose counters are tracked.
+     */
+    synchronized int getDeviceCount() {
+        return deviceIds.size();
+    }
+
+    /**
+     * Records the Counter32 and Counter64 bindings of a response of the agent, the interface index being the last arc
+     * of their OID. ifCounterDiscontinuityTime bindings of the same response apply to the counters of their
+     * interface.
+     */
+    synchronized void update(String device, long timestampNanos, List<VariableBinding> bindings) {
+        int deviceId = deviceId(device);
+        if (deviceId < 0) {
+            return;
+        }
+        int discontinuityColumn = columnId(IF_COUNTER_DISCONTINUITY_TIME);
+        for (VariableBinding binding : bindings) {
+            if (discontinuityColumn >= 0 && binding.getVariable() instanceof TimeTicks
+                    && isColumn(binding.getOid(), IF_COUNTER_DISCONTINUITY_TIME)) {
+                int slot = slot(deviceId, discontinuityColumn, binding.getOid().last());
+                values.put(slot, ((TimeTicks) binding.getVariable()).getValue());
+                timestamps.put(slot, timestampNanos);
+            }
+        }
+        for (VariableBinding binding : bindings) {
+            Variable variable = binding.getVariable();
+            boolean counter64 = variable instanceof Counter64;
+            if (!counter64 && !(variable instanceof Counter32)) {
+                continue;
+            }
+            OID oid = binding.getOid();
+            int columnId = columnIdOf(oid);
+            if (columnId < 0) {
+                continue;
+            }
+            int ifIndex = oid.last();
+            int discontinuitySlot = discontinuityColumn >= 0
+                    ? slots.get(key(deviceId, discontinuityColumn, ifIndex)) : -1;
+            // Only a discontinuity time received with this very response applies
+            long discontinuityTime = discontinuitySlot >= 0 && timestamps.get(discontinuitySlot) == timestampNanos
+                    ? values.get(discontinuitySlot) : NO_DISCONTINUITY;
+            long value = counter64 ? ((Counter64) variable).getValue() : ((Counter32) variable).getValue();
+            update(slot(deviceId, columnId, ifIndex), value, counter64, timestampNanos, discontinuityTime);
+        }
+        releaseIfUnused(device, deviceId);
+    }
+
+    @Override
+    public void onResults(PollJob job, long timestampNanos, List<VariableBinding> bindings) {
+        update(job.getIpAddress().getValue(), timestampNanos, bindings);
+    }
+
+    @Override
+    public void onFailure(PollJob job, Throwable cause) {
+        // The next successful poll takes its delta to the last sample
+    }
+
+    @Override
+    public void onRemoved(PollJob job, Collection<OID> released) {
+        remove(job.getIpAddress().getValue(), released);
+    }
+
+    private static long key(int deviceId, int columnId, int ifIndex) {
+        return (long) deviceId << 40 | (long) columnId << 32 | ifIndex & 0xffffffffL;
+    }
+
+    private static boolean isColumn(OID oid, OID column) {
+        return oid.size() == column.size() + 1 && oid.startsWith(column);
+    }
+
+    private int slot(int deviceId, int columnId, int ifIndex) {
+        long key = key(deviceId, columnId, ifIndex);
+        int slot = slots.get(key);
+        if (slot < 0) {
+            slot = newSlot();
+            slots.put(key, slot);
+            deviceSlots[deviceId]++;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the number of the agent, assigning one if it has none yet, or -1 if there are too many agents.
+     */
+    private int deviceId(String device) {
+        Integer id = deviceIds.get(device);
+        if (id == null) {
+            if (deviceIds.size() >= MAX_DEVICES) {
+                if (!devicesFull) {
+                    devicesFull = true;
+                    LOG.warn("Tracking counters of {} agents already, dropping samples of further ones", MAX_DEVICES);
+                }
+                return -1;
+            }
+            if (freeDeviceCount > 0) {
+                id = freeDeviceIds[--freeDeviceCount];
+            } else {
+                id = nextDeviceId++;
+                if (id == deviceSlots.length) {
+                    deviceSlots = Arrays.copyOf(deviceSlots, id * 2);
+                }
+            }
+            deviceIds.put(device, id);
+        }
+        return id;
+    }
+
+    /**
+     * Frees the number of the agent for reuse if it holds no slot.
+     */
+    private void releaseIfUnused(String device, int deviceId) {
+        if (deviceSlots[deviceId] > 0) {
+            return;
+        }
+        deviceIds.remove(device);
+        if (freeDeviceCount == freeDeviceIds.length) {
+            freeDeviceIds = Arrays.copyOf(freeDeviceIds, freeDeviceCount * 2);
+        }
+        freeDeviceIds[freeDeviceCount++] = deviceId;
+    }
+
+    /**
+     * Returns the number of the column, assigning one if it has none yet, or -1 if there are too many columns.
+     */
+    private int columnId(OID column) {
+        int id = columns.indexOf(column);
+        if (id < 0) {
+            if (columns.size() >= MAX_COLUMNS) {
+                if (!columnsFull) {
+                    columnsFull = true;
+                    LOG.warn("Tracking {} counter columns already, dropping samples of further ones, such as {}",
+                            MAX_COLUMNS, column);
+                }
+                return -1;
+            }
+            id = columns.size();
+            columns.add(new OID(column));
+        }
+        return id;
+    }
+
+    /**
+     * Returns the column number of the column of a counter OID, comparing arcs in place rather than creating the
+     * column OID, except for a column seen for the first time.
+     */
+    private int columnIdOf(OID oid) {
+        int id = findColumn(oid);
+        return id >= 0 ? id : columnId(new OID(oid.getValue(), 0, oid.size() - 1));
+    }
+
+    /**
+     * Returns the column number of the column of a counter OID, or -1 if the column has none.
+     */
+    private int findColumn(OID oid) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (isColumn(oid, columns.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int newSlot() {
+        if (freeCount > 0) {
+            return resetSlot(freeSlots[--freeCount]);
+        }
+        if (size == values.capacity()) {
+            int capacity = size * 2;
+            values = grow(values, capacity);
+            timestamps = grow(timestamps, capacity);
+            deltas = grow(deltas, capacity);
+            intervals = grow(intervals, capacity);
+            discontinuities = grow(discontinuities, capacity);
+        }
+        return resetSlot(size++);
+    }
+
+    private int resetSlot(int slot) {
+        timestamps.put(slot, 0);
+        discontinuities.put(slot, NO_DISCONTINUITY);
+        deltas.put(slot, NO_DELTA);
+        return slot;
+    }
+
+    private LongBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity * Long.BYTES).asLongBuffer()
+                : LongBuffer.allocate(capacity);
+    }
+
+    private LongBuffer grow(LongBuffer buffer, int capacity) {
+        LongBuffer grown = allocate(capacity);
+        buffer.rewind();
+        grown.put(buffer);
+        grown.clear();
+        return grown;
+    }
+
+    /**
+     * An open addressing hash map from long keys to non-negative ints with linear probing, without boxing.
+     */
+    private static final class LongIntMap {
+        private long[] keys;
+        private int[] entries;
+        private int size;
+
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+            keys = new long[capacity];
+            entries = new int[capacity];
+            Arrays.fill(entries, -1);
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = index(key, mask); ; i = i + 1 & mask) {
+                int entry = entries[i];
+                if (entry < 0 || keys[i] == key) {
+                    return entry;
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            // Kept at most half full
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = index(key, mask);
+            while (entries[i] >= 0 && keys[i] != key) {
+                i = i + 1 & mask;
+            }
+            if (entries[i] < 0) {
+                size++;
+            }
+            keys[i] = key;
+            entries[i] = value;
+        }
+
+        /**
+         * Removes the key, returning its entry, or -1 if there was none.
+         */
+        int remove(long key) {
+            int mask = keys.length - 1;
+            int i = index(key, mask);
+            while (entries[i] >= 0 && keys[i] != key) {
+                i = i + 1 & mask;
+            }
+            int removed = entries[i];
+            if (removed < 0) {
+                return -1;
+            }
+            // Moves the following keys of the run back into the gap where their probe would otherwise stop short
+            int gap = i;
+            for (int j = gap + 1 & mask; entries[j] >= 0; j = j + 1 & mask) {
+                int home = index(keys[j], mask);
+                if ((j - home & mask) >= (j - gap & mask)) {
+                    keys[gap] = keys[j];
+                    entries[gap] = entries[j];
+                    gap = j;
+                }
+            }
+            entries[gap] = -1;
+            size--;
+            return removed;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldEntries = entries;
+            keys = new long[capacity];
+            entries = new int[capacity];
+            Arrays.fill(entries, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldEntries[i] >= 0) {
+                    put(oldKeys[i], oldEntries[i]);
+                }
+            }
+        }
+
+        private static int index(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ hash >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Tracks which agents are down, for all requests of a session. An agent is marked down once a number of requests to
+ * it in a row got no response, and requests to it then fail at once rather than each waiting for all of its
+ * retransmissions. Meanwhile a single GET of sysUpTime is sent to the agent periodically, and the first response
+ * puts it back into service.
+ */
+final class DeviceHealthRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceHealthRegistry.class);
+
+    private final SnmpTransports transports;
+    private final int downThreshold;
+    private final long probeIntervalMillis;
+    private final Cache<Address, DeviceHealth> devices;
+    private final LongAdder rejectedCount = new LongAdder();
+    private volatile boolean closed;
+
+    DeviceHealthRegistry(SnmpTransports transports, SnmpConfig config) {
+        this.transports = transports;
+        downThreshold = config.getDeviceDownThreshold();
+        probeIntervalMillis = Math.max(1, config.getDeviceProbeIntervalMillis());
+        devices = CacheBuilder.newBuilder()
+                .maximumSize(config.getTargetCacheSize())
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * Fails if the agent is down.
+     *
+     * @throws DeviceDownException if the agent is down
+     */
+    void checkReachable(Address address) throws DeviceDownException {
+        if (isDown(address)) {
+            rejectedCount.increment();
+            throw new DeviceDownException(address);
+        }
+    }
+
+    boolean isDown(Address address) {
+        DeviceHealth health = devices.getIfPresent(address);
+        return health != null && health.isDown();
+    }
+
+    /**
+     * Records a response from the agent.
+     */
+    void onResponse(Address address) {
+        DeviceHealth health = devices.getIfPresent(address);
+        if (health != null) {
+            health.onResponse(address);
+        }
+    }
+
+    /**
+     * Records a request to the agent which got no response, marking the agent down once too many did in a row.
+     */
+    void onTimeout(Target target) {
+        if (downThreshold <= 0) {
+            return;
+        }
+        DeviceHealth health;
+        try {
+            health = devices.get(target.getAddress(), DeviceHealth::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to create device health", e);
+        }
+        if (health.onTimeout()) {
+            LOG.info("Agent {} did not answer {} requests in a row, failing requests to it until it responds",
+                    target.getAddress(), downThreshold);
+            scheduleProbe(target, health);
+        }
+    }
+
+    /**
+     * Returns the number of agents currently down.
+     */
+    long getDownCount() {
+        return devices.asMap().values().stream().filter(DeviceHealth::isDown).count();
+    }
+
+    /**
+     * Returns the number of requests failed at once since startup because their agent was down.
+     */
+    long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Stops probing. Agents still down stay down.
+     */
+    void close() {
+        closed = true;
+    }
+
+    private void scheduleProbe(Target target, DeviceHealth health) {
+        if (closed) {
+            return;
+        }
+        try {
+            SnmpTimer.INSTANCE.schedule(() -> probe(target, health), probeIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Failed to schedule probe of {}", target.getAddress(), e);
+        }
+    }
+
+    private void probe(Target target, DeviceHealth health) {
+        // Stop if the agent is back, or was evicted and so is no longer failed fast
+        if (closed || !health.isDown() || devices.getIfPresent(target.getAddress()) != health) {
+            return;
+        }
+
+        PDU pdu = SnmpSession.createPdu(target);
+        pdu.setType(PDU.GET);
+        pdu.add(new VariableBinding(SnmpConstants.sysUpTime));
+        ResponseListener listener = new ResponseListener() {
+            @Override
+            public void onResponse(ResponseEvent event) {
+                ((Snmp) event.getSource()).cancel(event.getRequest(), this);
+                if (event.getResponse() != null) {
+                    health.onResponse(target.getAddress());
+                } else {
+                    scheduleProbe(target, health);
+                }
+            }
+        };
+        try {
+            // Not paced: nothing else is sent to the agent while it is down
+            transports.send(pdu, target, listener);
+        } catch (IOException e) {
+            LOG.debug("Failed to probe {}", target.getAddress(), e);
+            scheduleProbe(target, health);
+        }
+    }
+
+    private final class DeviceHealth {
+        private int failures;
+        private boolean down;
+
+        synchronized boolean isDown() {
+            return down;
+        }
+
+        synchronized void onResponse(Address address) {
+            failures = 0;
+            if (down) {
+                down = false;
+                LOG.info("Agent {} responds again", address);
+            }
+        }
+
+        /**
+         * Counts a timeout. Returns true if it marked the agent down.
+         */
+        synchronized boolean onTimeout() {
+            failures++;
+            if (!down && failures >= downThreshold) {
+                down = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Signals a request which was not sent because its agent is down.
+     */
+    static final class DeviceDownException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DeviceDownException(Address address) {
+            super("Agent " + address + " is down, not sending request");
+        }
+    }
+}
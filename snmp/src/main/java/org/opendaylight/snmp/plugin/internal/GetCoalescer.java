@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.OID;
+
+/**
+ * Lets identical gets share one request. A get arriving while an identical one, same agent, community, OIDs and
+ * get type, is still pending gets the pending result rather than sending its own PDUs. Completed results are not
+ * kept.
+ */
+final class GetCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(GetCoalescer.class);
+
+    private final ConcurrentMap<GetKey, ListenableFuture<RpcResult<SnmpGetOutput>>> pending =
+            new ConcurrentHashMap<>();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * Returns the result of the pending get identical to the input, or starts one with the given function.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    ListenableFuture<RpcResult<SnmpGetOutput>> get(SnmpGetInput input,
+            Function<SnmpGetInput, ListenableFuture<RpcResult<SnmpGetOutput>>> request) {
+        GetKey key = new GetKey(input);
+        SettableFuture<RpcResult<SnmpGetOutput>> future = SettableFuture.create();
+        ListenableFuture<RpcResult<SnmpGetOutput>> existing = pending.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedCount.increment();
+            LOG.debug("Joining pending {} of {} on {}", input.getGetType(), key.oids, key.ip);
+            // One caller cancelling must not cancel the request for the others
+            return Futures.nonCancellationPropagating(existing);
+        }
+
+        future.addListener(() -> pending.remove(key, future), MoreExecutors.directExecutor());
+        try {
+            future.setFuture(request.apply(input));
+        } catch (RuntimeException e) {
+            // Fail whoever joined in the meantime as well
+            future.setException(e);
+            throw e;
+        }
+        return Futures.nonCancellationPropagating(future);
+    }
+
+    /**
+     * Returns the number of gets which joined a pending identical get since startup.
+     */
+    long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    private static final class GetKey {
+        private final String ip;
+        private final String community;
+        private final String securityName;
+        private final int securityLevel;
+        private final String credentials;
+        private final SnmpGetType getType;
+        private final List<OID> oids;
+        private final Long maxResults;
+        private final String cursor;
+        private final int hashCode;
+
+        GetKey(SnmpGetInput input) {
+            ip = input.getIpAddress() != null ? input.getIpAddress().getValue() : null;
+            community = input.getCommunity() != null ? input.getCommunity() : SNMPImpl.DEFAULT_COMMUNITY;
+            securityName = UsmUsers.isV3(input) ? input.getSecurityName() : null;
+            securityLevel = securityName != null ? UsmUsers.securityLevel(input) : 0;
+            // Only gets with the same passphrases may share a response
+            credentials = securityName != null ? UsmUsers.fingerprint(input) : null;
+            getType = input.getGetType();
+            oids = AsyncGetHandler.requestedOids(input);
+            maxResults = input.getMaxResults();
+            cursor = input.getCursor();
+            hashCode = Objects.hash(ip, community, securityName, securityLevel, credentials, getType, oids, maxResults,
+                    cursor);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof GetKey)) {
+                return false;
+            }
+            GetKey other = (GetKey) obj;
+            return Objects.equals(ip, other.ip) && community.equals(other.community)
+                    && Objects.equals(securityName, other.securityName) && securityLevel == other.securityLevel
+                    && Objects.equals(credentials, other.credentials) && getType == other.getType
+                    && oids.equals(other.oids) && Objects.equals(maxResults, other.maxResults)
+                    && Objects.equals(cursor, other.cursor);
+        }
+    }
+}
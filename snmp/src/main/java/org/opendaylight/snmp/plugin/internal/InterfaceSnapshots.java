@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.interfaces.group.IfEntry;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.interfaces.group.IfEntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetInterfacesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Incremental reads of the ifTable. The interfaces last read from each agent are kept along with the agent's
+ * sysUpTime and ifTableLastChange. Each read first gets both; as long as ifTableLastChange is the same and the agent
+ * did not restart, no interface was added or removed, and only the columns which change without that are walked and
+ * merged into the kept interfaces. ifTableLastChange does not cover changes of existing interfaces, so the kept
+ * interfaces are read again in full once they are older than the configured maximum age. Reads of different sets of
+ * columns keep their interfaces apart.
+ */
+final class InterfaceSnapshots {
+    private static final Logger LOG = LoggerFactory.getLogger(InterfaceSnapshots.class);
+
+    static final OID SYS_UP_TIME = new OID("1.3.6.1.2.1.1.3.0");
+    static final OID IF_TABLE_LAST_CHANGE = new OID("1.3.6.1.2.1.31.1.5.0");
+
+    // ifIndex, ifDescr, ifType, ifMtu, ifPhysAddress and ifSpecific. ifSpeed is left out, it changes with
+    // autonegotiation.
+    private static final Set<OID> STATIC_COLUMNS = ImmutableSet.of(
+            new OID("1.3.6.1.2.1.2.2.1.1"),
+            new OID("1.3.6.1.2.1.2.2.1.2"),
+            new OID("1.3.6.1.2.1.2.2.1.3"),
+            new OID("1.3.6.1.2.1.2.2.1.4"),
+            new OID("1.3.6.1.2.1.2.2.1.6"),
+            new OID("1.3.6.1.2.1.2.2.1.22"));
+
+    private final SnmpSession session;
+    private final Executor decodeExecutor;
+    private final long maxAgeNanos;
+    private final Cache<SnapshotKey, Snapshot> snapshots;
+    private final LongAdder fullReads = new LongAdder();
+    private final LongAdder incrementalReads = new LongAdder();
+
+    InterfaceSnapshots(SnmpSession session, SnmpConfig config, Executor decodeExecutor) {
+        this.session = session;
+        this.decodeExecutor = decodeExecutor;
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(config.getInterfaceSnapshotMaxAgeSeconds());
+        this.snapshots = CacheBuilder.newBuilder()
+                .maximumSize(config.getInterfaceSnapshotCacheSize())
+                .build();
+    }
+
+    /**
+     * Reads the given columns of the interfaces of the agent, incrementally if possible, and keeps them for the next
+     * read of the same columns. Columns whose walk fails are left out, as with a full read, rather than keeping their
+     * values of the previous read; the interfaces are then not kept.
+     */
+    ListenableFuture<Map<Integer, IfEntryBuilder>> read(GetInterfacesInput input,
+            List<ColumnDecoder<IfEntryBuilder>> columns) {
+        SnapshotKey key = new SnapshotKey(input, columns);
+        SnmpGetInputBuilder clockInput = UsmUsers.isV3(input) ? new SnmpGetInputBuilder(input)
+                : new SnmpGetInputBuilder();
+        SnmpGetInput getInput = clockInput
+                .setIpAddress(input.getIpAddress())
+                .setCommunity(input.getCommunity())
+                .setGetType(SnmpGetType.GET)
+                .setOids(Arrays.asList(SYS_UP_TIME.toString(), IF_TABLE_LAST_CHANGE.toString()))
+                .build();
+        // Without the clock the interfaces are read in full
+        ListenableFuture<List<VariableBinding>> clock = Futures.catching(
+                new AsyncGetHandler(getInput, session).getListResponse(), Exception.class, e -> {
+                    LOG.debug("Failed to get ifTableLastChange of {}", key.ipAddress, e);
+                    return Collections.emptyList();
+                }, MoreExecutors.directExecutor());
+        return Futures.transformAsync(clock, bindings -> read(input, columns, key, bindings),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Returns the number of reads which walked every column since startup.
+     */
+    long getFullReadCount() {
+        return fullReads.sum();
+    }
+
+    /**
+     * Returns the number of reads which only walked the changing columns since startup.
+     */
+    long getIncrementalReadCount() {
+        return incrementalReads.sum();
+    }
+
+    private ListenableFuture<Map<Integer, IfEntryBuilder>> read(GetInterfacesInput input,
+            List<ColumnDecoder<IfEntryBuilder>> columns, SnapshotKey key, List<VariableBinding> clock) {
+        long sysUpTime = timeTicks(clock, SYS_UP_TIME);
+        long lastChange = timeTicks(clock, IF_TABLE_LAST_CHANGE);
+        long now = System.nanoTime();
+        Snapshot snapshot = snapshots.getIfPresent(key);
+        MibTable<IfEntryBuilder> table = new MibTable<>(session, input.getIpAddress(), input.getCommunity(), input,
+                IfEntryBuilder.class, decodeExecutor);
+
+        Map<Integer, IfEntryBuilder> rows = new HashMap<>();
+        List<ColumnDecoder<IfEntryBuilder>> walked;
+        long fullReadNanos;
+        if (snapshot != null && lastChange >= 0 && lastChange == snapshot.lastChange
+                && sysUpTime >= snapshot.sysUpTime && now - snapshot.fullReadNanos < maxAgeNanos) {
+            for (Map.Entry<Integer, IfEntry> entry : snapshot.entries.entrySet()) {
+                rows.put(entry.getKey(), new IfEntryBuilder(entry.getValue()));
+            }
+            walked = new ArrayList<>();
+            for (ColumnDecoder<IfEntryBuilder> column : columns) {
+                if (!STATIC_COLUMNS.contains(column.getColumn())) {
+                    walked.add(column);
+                }
+            }
+            fullReadNanos = snapshot.fullReadNanos;
+            incrementalReads.increment();
+        } else {
+            walked = columns;
+            fullReadNanos = now;
+            fullReads.increment();
+        }
+
+        return Futures.transform(table.populateAsync(walked, rows), populated -> {
+            // The kept values of a changing column whose walk failed would be stale
+            for (ColumnDecoder<IfEntryBuilder> failed : table.getFailedColumns()) {
+                for (IfEntryBuilder row : populated.values()) {
+                    failed.clear(row);
+                }
+            }
+            // An agent without ifTableLastChange is always read in full
+            if (lastChange >= 0 && table.getFailedColumnCount() == 0) {
+                ImmutableMap.Builder<Integer, IfEntry> entries = ImmutableMap.builder();
+                for (Map.Entry<Integer, IfEntryBuilder> row : populated.entrySet()) {
+                    entries.put(row.getKey(), row.getValue().build());
+                }
+                snapshots.put(key, new Snapshot(sysUpTime, lastChange, fullReadNanos, entries.build()));
+            }
+            return populated;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Returns the value of the TimeTicks object in the bindings, or -1 if the agent did not return one.
+     */
+    private static long timeTicks(List<VariableBinding> bindings, OID oid) {
+        for (VariableBinding binding : bindings) {
+            if (oid.equals(binding.getOid()) && binding.getVariable() instanceof TimeTicks) {
+                return ((TimeTicks) binding.getVariable()).getValue();
+            }
+        }
+        return -1;
+    }
+
+    private static final class Snapshot {
+        private final long sysUpTime;
+        private final long lastChange;
+        // When the entries were last read in full
+        private final long fullReadNanos;
+        private final Map<Integer, IfEntry> entries;
+
+        Snapshot(long sysUpTime, long lastChange, long fullReadNanos, Map<Integer, IfEntry> entries) {
+            this.sysUpTime = sysUpTime;
+            this.lastChange = lastChange;
+            this.fullReadNanos = fullReadNanos;
+            this.entries = entries;
+        }
+    }
+
+    private static final class SnapshotKey {
+        private final String ipAddress;
+        private final String community;
+        private final String securityName;
+        private final String credentials;
+        private final List<String> columns;
+        private final int hashCode;
+
+        SnapshotKey(GetInterfacesInput input, List<ColumnDecoder<IfEntryBuilder>> columnDecoders) {
+            ipAddress = input.getIpAddress() != null ? input.getIpAddress().getValue() : null;
+            // SNMPv3 users may be given different views of the table
+            securityName = UsmUsers.isV3(input) ? input.getSecurityName() : null;
+            // Interfaces read with one set of passphrases are not handed to requests with another
+            credentials = securityName != null ? UsmUsers.fingerprint(input) : null;
+            community = securityName != null ? null
+                    : input.getCommunity() != null ? input.getCommunity() : SNMPImpl.DEFAULT_COMMUNITY;
+            columns = new ArrayList<>(columnDecoders.size());
+            for (ColumnDecoder<IfEntryBuilder> column : columnDecoders) {
+                columns.add(column.getName());
+            }
+            hashCode = Objects.hash(ipAddress, community, securityName, credentials, columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SnapshotKey)) {
+                return false;
+            }
+            SnapshotKey other = (SnapshotKey) obj;
+            return Objects.equals(ipAddress, other.ipAddress) && Objects.equals(community, other.community)
+                    && Objects.equals(securityName, other.securityName)
+                    && Objects.equals(credentials, other.credentials) && columns.equals(other.columns);
+        }
+    }
+}
@@ -8,246 +8,346 @@
 
 package org.opendaylight.snmp.plugin.internal;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.math.BigInteger;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import org.opendaylight.snmp.OID;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ieee.types.rev080522.MacAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Counter32;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Counter64;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Gauge32;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.PhysAddress;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Timestamp;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Timeticks;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.InterfaceIndex;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.InterfaceIndexOrZero;
-import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2.inet.address.mib.rev050204.InetAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.UsmCredentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.Snmp;
-import org.snmp4j.smi.IpAddress;
-import org.snmp4j.smi.OctetString;
-import org.snmp4j.smi.TimeTicks;
-import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.OID;
 import org.snmp4j.smi.VariableBinding;
 
 public class MibTable<T> {
     private static final Logger LOG = LoggerFactory.getLogger(MibTable.class);
-
-    private final SnmpGetInputBuilder snmpGetInputBuilder;
-    private final Class<T> builderClass;
-    private Map<Integer, T> indexToBuilderObject;
-    private final Snmp snmp;
-
+    // The row index is the last arc of the OID. Arcs of 2^31 and above, which OID holds as negative ints, do not fit
+    // the Integer keys and are skipped; populateAsync(TableIndex) reads them with TableIndex.Key.getUnsigned().
+    private static final RowKeyDecoder<Integer> LAST_ARC = (arcs, offset) ->
+            arcs.length > offset && arcs[arcs.length - 1] >= 0 ? arcs[arcs.length - 1] : null;
+
+    private final Ipv4Address ipv4Address;
+    private final String community;
+    private final UsmCredentials credentials;
+    private final TableDecoder<T> tableDecoder;
+    private final SnmpSession session;
+    private final Executor decodeExecutor;
+    private final Set<ColumnDecoder<T>> failedColumns = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a table reader with a session of its own, which shares no per-agent state, such as learned GETBULK sizes,
+     * timeouts or request limits, with any other handler.
+     *
+     * @deprecated use {@link #MibTable(SnmpSession, Ipv4Address, String, Class)} with the session shared by all
+     *             requests, such as {@link SNMPImpl#getSession()}
+     */
+    @Deprecated
     public MibTable(Snmp snmp, Ipv4Address ipv4Address, String community, Class<T> builderClass) {
-        this.snmp = snmp;
-        this.builderClass = builderClass;
-        snmpGetInputBuilder = new SnmpGetInputBuilder()
-                .setCommunity(community)
-                .setIpAddress(ipv4Address)
-                .setGetType(SnmpGetType.GETWALK);
+        this(new SnmpSession(snmp), ipv4Address, community, builderClass);
     }
 
-    public Map<Integer, T> populate() {
-        Collection<GetDataObject> getDataObjects = new ArrayList<>();
-        indexToBuilderObject = new HashMap<>();
-
-        // Send out each of the requests
-        for (Method method : builderClass.getMethods()) {
-            if (method.getName().startsWith("set")) {
-                GetDataObject dataObject = new GetDataObject();
-                dataObject.setSetMethod(method);
-
-                dataObject = sendRequest(dataObject);
-                if (dataObject.getListFuture() != null) {
-                    getDataObjects.add(dataObject);
-                }
-            }
-        }
-
-        for (GetDataObject getDataObject : getDataObjects) {
-            parse(getDataObject);
-        }
-
-        return indexToBuilderObject;
+    public MibTable(SnmpSession session, Ipv4Address ipv4Address, String community, Class<T> builderClass) {
+        this(session, ipv4Address, community, builderClass, MoreExecutors.directExecutor());
     }
 
-    private GetDataObject sendRequest(GetDataObject dataObject) {
-        Method method = dataObject.getSetMethod();
+    /**
+     * Creates a table reader which decodes completed column walks on the given executor rather than on the thread
+     * delivering the last response.
+     */
+    public MibTable(SnmpSession session, Ipv4Address ipv4Address, String community, Class<T> builderClass,
+            Executor decodeExecutor) {
+        this(session, ipv4Address, community, null, builderClass, decodeExecutor);
+    }
 
-        if (method != null && method.getName().startsWith("set")) {
-            OID oid = method.getAnnotation(OID.class);
-            if (oid != null) {
-                String oidString = oid.value();
-                snmpGetInputBuilder.setOid(oidString);
-                dataObject.setBaseOID(oidString);
+    MibTable(SnmpSession session, Ipv4Address ipv4Address, String community, UsmCredentials credentials,
+            Class<T> builderClass, Executor decodeExecutor) {
+        this.session = session;
+        this.tableDecoder = TableDecoder.forBuilder(builderClass);
+        this.decodeExecutor = decodeExecutor;
+        this.ipv4Address = ipv4Address;
+        this.community = community;
+        this.credentials = credentials;
+    }
 
-                AsyncGetHandler getHandler = new AsyncGetHandler(snmpGetInputBuilder.build(), snmp);
-                dataObject.setListFuture(getHandler.getListResponse());
-            }
+    public Map<Integer, T> populate() {
+        try {
+            return populateAsync().get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("Failed to populate table", e);
+            return Collections.emptyMap();
         }
-        return dataObject;
     }
 
-    private void parse(GetDataObject dataObject) {
-
-        Future<List<VariableBinding>> future = dataObject.getListFuture();
-        List<VariableBinding> variableBindings;
+    /**
+     * Reads only the named columns of the table, see {@link #populateAsync(Collection)}.
+     *
+     * @throws IllegalArgumentException if a name is not a column of the table
+     */
+    public Map<Integer, T> populate(Collection<String> columnNames) {
         try {
-            variableBindings = future.get();
+            return populateAsync(columnNames).get();
         } catch (InterruptedException | ExecutionException e) {
-            LOG.warn("VariableBinding Future", e);
-            return;
+            LOG.warn("Failed to populate table", e);
+            return Collections.emptyMap();
         }
+    }
 
-        Method method = dataObject.getSetMethod();
-        org.snmp4j.smi.OID baseOID = new org.snmp4j.smi.OID(dataObject.getBaseOID());
+    /**
+     * Walks every column of the table with a single multi-column GETBULK walk and decodes each column as soon as it
+     * ends. Columns whose walk fails are left out of the rows. The returned future completes once all columns are
+     * decoded; no thread waits for the responses in the meantime.
+     */
+    public ListenableFuture<Map<Integer, T>> populateAsync() {
+        return populateAsync(tableDecoder.getColumns(), new HashMap<>());
+    }
 
-        // Send the request for the oid
-        Variable variable = null;
-        Class<?> objectType = null;
-        for (int i = 0; i < variableBindings.size(); i++) {
-            VariableBinding variableBinding = variableBindings.get(i);
+    /**
+     * Walks only the named columns of the table, in one multi-column walk as {@link #populateAsync()} does. The name
+     * of a column is the name of its builder setter without "set", such as ifOperStatus; only the named setters are
+     * called on the rows.
+     *
+     * @throws IllegalArgumentException if a name is not a column of the table
+     */
+    public ListenableFuture<Map<Integer, T>> populateAsync(Collection<String> columnNames) {
+        return populateAsync(tableDecoder.getColumns(columnNames), new HashMap<>());
+    }
 
-            try {
-                org.snmp4j.smi.OID snmpOID = variableBinding.getOid();
+    /**
+     * Reads only the rows with the given indexes, requesting each of their objects with GET. The objects are packed
+     * into as few PDUs as fit, so a few dozen rows take a couple of requests whatever the size of the table. Rows
+     * the agent does not have are left out.
+     *
+     * @param columnNames the columns to read, as for {@link #populateAsync(Collection)}, or null for all columns
+     * @throws IllegalArgumentException if a name is not a column of the table
+     */
+    public ListenableFuture<Map<Integer, T>> populateAsync(Collection<String> columnNames,
+            Collection<Integer> indexes) {
+        List<ColumnDecoder<T>> columns = columnNames != null ? getColumns(columnNames) : getColumns();
+        List<String> oids = new ArrayList<>(columns.size() * indexes.size());
+        for (Integer index : indexes) {
+            for (ColumnDecoder<T> column : columns) {
+                oids.add(new OID(column.getColumn()).append(index).toString());
+            }
+        }
+        Map<Integer, T> rows = new HashMap<>();
+        failedColumns.clear();
+        if (oids.isEmpty()) {
+            return Futures.immediateFuture(rows);
+        }
 
-                if (!snmpOID.startsWith(baseOID)) {
-                    continue;
+        SnmpGetInputBuilder builder = credentials != null ? new SnmpGetInputBuilder(credentials)
+                : new SnmpGetInputBuilder();
+        SnmpGetInput input = builder
+                .setIpAddress(ipv4Address)
+                .setCommunity(community)
+                .setGetType(SnmpGetType.GET)
+                .setOids(oids)
+                .build();
+        ListenableFuture<List<VariableBinding>> response = catchingRequestFailures(
+            new AsyncGetHandler(input, session).getListResponse(), e -> {
+                LOG.warn("Failed to get {} rows", indexes.size(), e);
+                failedColumns.addAll(columns);
+                return Collections.emptyList();
+            });
+        return Futures.transform(response, variableBindings -> {
+            List<VariableBinding> found = new ArrayList<>(variableBindings.size());
+            for (VariableBinding variableBinding : variableBindings) {
+                // noSuchInstance for the objects of missing rows
+                if (!variableBinding.isException()) {
+                    found.add(variableBinding);
                 }
+            }
+            for (ColumnDecoder<T> column : columns) {
+                decodeColumn(column, found, rows);
+            }
+            return rows;
+        }, decodeExecutor);
+    }
 
-                variable = variableBinding.getVariable();
-
-                // Map the type of object we got based on the set method
-
-                objectType = method.getParameterTypes()[0];
-                Object setObject = null;
-
-                if (objectType.equals(Counter32.class)) {
-                    setObject = new Counter32(variable.toLong());
-
-                } else if (objectType.equals(Counter64.class)) {
-                    BigInteger counter64 = new BigInteger(variable.toString());
-                    setObject = new Counter64(counter64);
-
-                } else if (objectType.equals(MacAddress.class)) {
-                    // Get the byte array
-                    OctetString octetString = (OctetString) variable;
-
-                    String macAddress = octetString.toHexString(':');
-                    setObject = new MacAddress(macAddress);
-
-                } else if (objectType.equals(Ipv4Address.class)) {
-                    IpAddress ipAddress = (IpAddress) variable;
-                    setObject = new Ipv4Address(ipAddress.toString());
-
-                } else if (objectType.equals(Long.class)) {
-                    setObject = variable.toLong();
-
-                } else if (objectType.equals(Integer.class)) {
-                    setObject = variable.toInt();
-
-                } else if (objectType.equals(InterfaceIndexOrZero.class)) {
-                    setObject = new InterfaceIndexOrZero(Integer.valueOf(variable.toString()));
-
-                } else if (objectType.equals(Timestamp.class)) {
-                    setObject = new Timestamp(variable.toLong());
-
-                } else if (objectType.equals(InetAddress.class)) {
-                    org.snmp4j.smi.IpAddress ipAddress = (org.snmp4j.smi.IpAddress) variable;
-                    setObject = ipAddress.getInetAddress();
+    /**
+     * Walks only the rows with an index between the given indexes, both included, with GETBULK requests bounded by
+     * the range: each column starts at the first row and stops at the last one, instead of covering the whole
+     * table.
+     *
+     * @param columnNames the columns to read, as for {@link #populateAsync(Collection)}, or null for all columns
+     * @throws IllegalArgumentException if a name is not a column of the table, or the range is empty
+     */
+    public ListenableFuture<Map<Integer, T>> populateAsync(Collection<String> columnNames, int firstIndex,
+            int lastIndex) {
+        List<ColumnDecoder<T>> columns = columnNames != null ? getColumns(columnNames) : getColumns();
+        return populateAsync(columns, new HashMap<>(), firstIndex, lastIndex, LAST_ARC);
+    }
 
-                } else if (Enum.class.isAssignableFrom(objectType)) {
-                    setObject = objectType.getEnumConstants()[variable.toInt()];
+    /**
+     * Walks every column of the table like {@link #populateAsync()}, but keys the rows by their whole index, decoded
+     * with the given index structure, instead of by the last arc of their OIDs. Tables indexed by several objects,
+     * or by strings or addresses, need this to keep their rows apart. Objects whose index does not match the
+     * structure are skipped.
+     */
+    public ListenableFuture<Map<TableIndex.Key, T>> populateAsync(TableIndex index) {
+        return populateKeyedAsync(getColumns(), index);
+    }
 
-                } else if (objectType.equals(PhysAddress.class)) {
-                    setObject = new PhysAddress(variable.toString());
+    /**
+     * Walks only the named columns of the table, keying the rows by their whole index, see
+     * {@link #populateAsync(TableIndex)}.
+     *
+     * @param columnNames the columns to read, as for {@link #populateAsync(Collection)}, or null for all columns
+     * @throws IllegalArgumentException if a name is not a column of the table
+     */
+    public ListenableFuture<Map<TableIndex.Key, T>> populateAsync(Collection<String> columnNames, TableIndex index) {
+        return populateKeyedAsync(columnNames != null ? getColumns(columnNames) : getColumns(), index);
+    }
 
-                } else if (objectType.equals(String.class)) {
-                    setObject = variable.toString();
+    private ListenableFuture<Map<TableIndex.Key, T>> populateKeyedAsync(List<ColumnDecoder<T>> columns,
+            TableIndex index) {
+        return populateAsync(columns, new HashMap<>(), 0, Integer.MAX_VALUE, index::decode);
+    }
 
-                } else if (objectType.equals(Gauge32.class)) {
-                    setObject = new Gauge32(variable.toLong());
+    /**
+     * Returns the columns of the table.
+     */
+    List<ColumnDecoder<T>> getColumns() {
+        return tableDecoder.getColumns();
+    }
 
-                } else if (objectType.equals(InterfaceIndex.class)) {
-                    setObject = new InterfaceIndex(variable.toInt());
+    /**
+     * Returns the named columns of the table.
+     *
+     * @throws IllegalArgumentException if a name is not a column of the table
+     */
+    List<ColumnDecoder<T>> getColumns(Collection<String> columnNames) {
+        return tableDecoder.getColumns(columnNames);
+    }
 
-                } else if (objectType.equals(Timeticks.class)) {
-                    TimeTicks timeTicks = (TimeTicks) variable;
-                    setObject = new TimeTicks(timeTicks.toMilliseconds());
-                }
+    /**
+     * Returns the number of columns whose walk failed in the last populate.
+     */
+    int getFailedColumnCount() {
+        return failedColumns.size();
+    }
 
-                // Get the index of from the OID
-                Integer index = getIndexFromOID(snmpOID.toString());
+    /**
+     * Returns the columns whose walk failed in the last populate.
+     */
+    Set<ColumnDecoder<T>> getFailedColumns() {
+        return Collections.unmodifiableSet(failedColumns);
+    }
 
-                T builderObject;
+    /**
+     * Walks the given columns only, decoding them into the given rows: rows already present are updated in place,
+     * and rows seen for the first time are added.
+     */
+    ListenableFuture<Map<Integer, T>> populateAsync(List<ColumnDecoder<T>> columns, Map<Integer, T> rows) {
+        return populateAsync(columns, rows, 0, Integer.MAX_VALUE, LAST_ARC);
+    }
 
-                if (setObject == null) {
-                    continue;
-                }
+    private <K> ListenableFuture<Map<K, T>> populateAsync(List<ColumnDecoder<T>> columns, Map<K, T> rows,
+            int firstIndex, int lastIndex, RowKeyDecoder<K> keys) {
+        failedColumns.clear();
+        List<ListenableFuture<Void>> columnFutures = new ArrayList<>(columns.size());
 
-                if (!indexToBuilderObject.containsKey(index)) {
-                    builderObject = builderClass.newInstance();
-                    indexToBuilderObject.put(index, builderObject);
+        List<OID> columnOids = new ArrayList<>(columns.size());
+        for (ColumnDecoder<T> column : columns) {
+            columnOids.add(column.getColumn());
+        }
+        TableWalker walker = new TableWalker(session, session.getTarget(ipv4Address, community, credentials),
+                columnOids, firstIndex, lastIndex);
+
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnDecoder<T> column = columns.get(i);
+            ListenableFuture<List<VariableBinding>> walk = catchingRequestFailures(walker.getColumnResponse(i), e -> {
+                LOG.warn("Failed to walk column {}", column.getName(), e);
+                failedColumns.add(column);
+                return Collections.emptyList();
+            });
+            columnFutures.add(Futures.transform(walk, variableBindings -> {
+                synchronized (rows) {
+                    decodeColumn(column, variableBindings, rows, keys);
                 }
+                return null;
+            }, decodeExecutor));
+        }
 
-                builderObject = indexToBuilderObject.get(index);
-
-                try {
-                    method.invoke(builderObject, setObject);
-                } catch (InvocationTargetException | IllegalArgumentException e) {
-                    LOG.debug("Error invoking {} with {}", method.getName(), setObject, e);
-                }
-            } catch (InstantiationException | IllegalAccessException e) {
-                LOG.warn("Populate Exception", e);
+        walker.start();
+        // A column which could not be decoded, for instance because the executor rejected it, fails the table
+        return Futures.whenAllSucceed(columnFutures).call(() -> {
+            synchronized (rows) {
+                return rows;
             }
-        }
+        }, MoreExecutors.directExecutor());
     }
 
-    private static Integer getIndexFromOID(String oid) {
-        String[] splitString = oid.split("\\.");
-        String last = splitString[splitString.length - 1];
-        return Integer.valueOf(last);
+    /**
+     * Replaces a failure of a request to the agent, which times out, fails to be sent, or has invalid input, with the
+     * fallback's value. Any other failure is left to fail the future.
+     */
+    private static <V> ListenableFuture<V> catchingRequestFailures(ListenableFuture<V> response,
+            Function<Exception, V> fallback) {
+        ListenableFuture<V> caught = Futures.catching(response, IOException.class, fallback,
+                MoreExecutors.directExecutor());
+        caught = Futures.catching(caught, TimeoutException.class, fallback, MoreExecutors.directExecutor());
+        return Futures.catching(caught, IllegalArgumentException.class, fallback, MoreExecutors.directExecutor());
     }
 
-    private class GetDataObject {
-        private Future<List<VariableBinding>> listFuture;
-        private Method setMethod;
-        private String baseOID;
-
-        public Future<List<VariableBinding>> getListFuture() {
-            return listFuture;
-        }
-
-        public void setListFuture(Future<List<VariableBinding>> listFuture) {
-            this.listFuture = listFuture;
-        }
-
-        public Method getSetMethod() {
-            return setMethod;
-        }
+    void decodeColumn(ColumnDecoder<T> column, List<VariableBinding> variableBindings, Map<Integer, T> rows) {
+        decodeColumn(column, variableBindings, rows, LAST_ARC);
+    }
 
-        public void setSetMethod(Method setMethod) {
-            this.setMethod = setMethod;
-        }
+    private <K> void decodeColumn(ColumnDecoder<T> column, List<VariableBinding> variableBindings, Map<K, T> rows,
+            RowKeyDecoder<K> keys) {
+        OID baseOID = column.getColumn();
+        int columnLength = baseOID.size();
+        for (VariableBinding variableBinding : variableBindings) {
+            OID snmpOID = variableBinding.getOid();
+            if (!snmpOID.startsWith(baseOID)) {
+                continue;
+            }
 
-        public String getBaseOID() {
-            return baseOID;
-        }
+            K index = keys.decode(snmpOID.getValue(), columnLength);
+            if (index == null) {
+                LOG.debug("Skipping {}, its index does not match the table's", snmpOID);
+                continue;
+            }
 
-        public void setBaseOID(String baseOID) {
-            this.baseOID = baseOID;
+            T builderObject = rows.get(index);
+            if (builderObject == null) {
+                builderObject = tableDecoder.newBuilder();
+                if (!column.decode(builderObject, variableBinding.getVariable())) {
+                    continue;
+                }
+                rows.put(index, builderObject);
+            } else {
+                column.decode(builderObject, variableBinding.getVariable());
+            }
         }
     }
 
+    /**
+     * Extracts the key of a row from the arcs of one of its objects.
+     */
+    private interface RowKeyDecoder<K> {
+        /**
+         * Returns the key, or null if the arcs following the column do not form an index of the table.
+         *
+         * @param offset the number of arcs of the column
+         */
+        K decode(int[] arcs, int offset);
+    }
 }
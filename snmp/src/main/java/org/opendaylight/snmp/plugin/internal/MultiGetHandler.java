@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetMultiInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetMultiOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetMultiOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.multi.input.Targets;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.multi.output.TargetResults;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.multi.output.TargetResultsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.multi.output.target.results.Results;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.multi.output.target.results.ResultsBuilder;
+import org.opendaylight.yangtools.yang.common.RpcError;
+import org.opendaylight.yangtools.yang.common.RpcError.ErrorType;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the snmp-get of every target of an snmp-get-multi request, each through its own {@link AsyncGetHandler},
+ * with at most a given number of targets in flight. A target is started whenever another one completes, so the
+ * request occupies no thread while it waits for the agents.
+ */
+public class MultiGetHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiGetHandler.class);
+
+    private final SnmpGetMultiInput snmpGetMultiInput;
+    private final SnmpSession session;
+    private final int maxInFlight;
+    private final List<Targets> targets;
+    private final TargetResults[] targetResults;
+    private final SettableFuture<RpcResult<SnmpGetMultiOutput>> rpcSettableFuture = SettableFuture.create();
+    private final AtomicInteger startRequests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger remaining;
+    // Only accessed by the thread which won startRequests
+    private int next;
+
+    public MultiGetHandler(SnmpGetMultiInput getMultiInput, SnmpSession session, int maxInFlight) {
+        this.snmpGetMultiInput = getMultiInput;
+        this.session = session;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.targets = getMultiInput.getTargets() != null ? getMultiInput.getTargets() : Collections.emptyList();
+        this.targetResults = new TargetResults[targets.size()];
+        this.remaining = new AtomicInteger(targets.size());
+    }
+
+    public ListenableFuture<RpcResult<SnmpGetMultiOutput>> getRpcResponse() {
+        if (targets.isEmpty()) {
+            setResult();
+        } else {
+            startTargets();
+        }
+        return rpcSettableFuture;
+    }
+
+    /**
+     * Starts targets until the in-flight cap is reached. A target may complete from within the send, calling this
+     * method again; such a nested call only asks the running one for another pass, so the stack does not grow with
+     * the number of targets.
+     */
+    private void startTargets() {
+        if (startRequests.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (next < targets.size() && inFlight.get() < maxInFlight) {
+                int index = next++;
+                inFlight.incrementAndGet();
+                startTarget(index);
+            }
+        } while (startRequests.decrementAndGet() != 0);
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void startTarget(int index) {
+        final ListenableFuture<RpcResult<SnmpGetOutput>> future;
+        try {
+            future = session.get(toGetInput(targets.get(index)));
+        } catch (RuntimeException e) {
+            // A missing address or a malformed OID only fails its own target
+            LOG.debug("Failed to start get for target {}", targets.get(index), e);
+            onTargetComplete(index, RpcResultBuilder.<SnmpGetOutput>failed()
+                    .withError(ErrorType.APPLICATION, "Invalid target: " + e.getMessage(), e).build());
+            return;
+        }
+        future.addListener(() -> onTargetComplete(index, Futures.getUnchecked(future)),
+                MoreExecutors.directExecutor());
+    }
+
+    private SnmpGetInput toGetInput(Targets target) {
+        SnmpGetType getType = snmpGetMultiInput.getGetType() != null ? snmpGetMultiInput.getGetType()
+                : SnmpGetType.GET;
+        return new SnmpGetInputBuilder(target)
+                .setIpAddress(target.getIpAddress())
+                .setCommunity(target.getCommunity())
+                .setOids(target.getOids())
+                .setGetType(getType)
+                .build();
+    }
+
+    private void onTargetComplete(int index, RpcResult<SnmpGetOutput> result) {
+        targetResults[index] = toTargetResults(targets.get(index), result);
+        inFlight.decrementAndGet();
+        if (remaining.decrementAndGet() == 0) {
+            setResult();
+        } else {
+            startTargets();
+        }
+    }
+
+    private static TargetResults toTargetResults(Targets target, RpcResult<SnmpGetOutput> result) {
+        TargetResultsBuilder targetResultsBuilder = new TargetResultsBuilder().setIpAddress(target.getIpAddress());
+
+        List<Results> results = new ArrayList<>();
+        SnmpGetOutput output = result.getResult();
+        if (output != null && output.getResults() != null) {
+            for (org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.output.Results getResult
+                    : output.getResults()) {
+                results.add(new ResultsBuilder().setOid(getResult.getOid()).setValue(getResult.getValue()).build());
+            }
+        }
+        targetResultsBuilder.setResults(results);
+
+        if (!result.isSuccessful()) {
+            String message = result.getErrors().stream().map(RpcError::getMessage).collect(Collectors.joining("; "));
+            targetResultsBuilder.setErrorMessage(message.isEmpty() ? "Get failed" : message);
+        }
+        return targetResultsBuilder.build();
+    }
+
+    private void setResult() {
+        List<TargetResults> allResults = Arrays.asList(targetResults);
+        LOG.debug("Completed get of {} targets, {} failed", allResults.size(),
+                allResults.stream().filter(targetResult -> targetResult.getErrorMessage() != null).count());
+
+        SnmpGetMultiOutput output = new SnmpGetMultiOutputBuilder().setTargetResults(allResults).build();
+        rpcSettableFuture.set(RpcResultBuilder.success(output).build());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.UdpTransportMapping;
+import org.snmp4j.util.WorkerPool;
+import org.snmp4j.util.WorkerTask;
+
+/**
+ * A UDP transport mapping on a {@link DatagramChannel}, an alternative to
+ * {@link org.snmp4j.transport.DefaultUdpTransportMapping}. Datagrams are received into pooled direct buffers and
+ * handed to the message dispatcher as they are, which decodes them straight from the buffer; nothing is copied into a
+ * {@code byte[]} per packet. Buffers go back to the pool once their message is processed, so processing is done
+ * either on the listen thread or on the given worker pool, never by the message dispatcher on threads of its own.
+ */
+final class NioUdpTransportMapping extends UdpTransportMapping {
+    private static final Logger LOG = LoggerFactory.getLogger(NioUdpTransportMapping.class);
+
+    private final WorkerPool workerPool;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+    private volatile DatagramChannel channel;
+    private volatile Thread listenThread;
+
+    /**
+     * Creates a transport mapping on an ephemeral port.
+     *
+     * @param workerPool the pool processing received messages, or null to process them on the listen thread
+     */
+    NioUdpTransportMapping(SnmpConfig config, WorkerPool workerPool) throws IOException {
+        super(new UdpAddress("0.0.0.0/0"));
+        this.workerPool = workerPool;
+        this.receiveBufferSize = config.getSocketReceiveBufferSize();
+        this.sendBufferSize = config.getSocketSendBufferSize();
+        // The worker pool blocks the listen thread while all its workers are busy, so this many buffers are enough
+        buffers = new ArrayBlockingQueue<>(Math.max(1, config.getDispatcherThreads()) + 1);
+        channel = openChannel();
+    }
+
+    private DatagramChannel openChannel() throws IOException {
+        DatagramChannel newChannel = DatagramChannel.open();
+        try {
+            if (receiveBufferSize > 0) {
+                newChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            if (sendBufferSize > 0) {
+                newChannel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+            newChannel.bind(new InetSocketAddress(udpAddress.getInetAddress(), udpAddress.getPort()));
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+        return newChannel;
+    }
+
+    @Override
+    public void sendMessage(UdpAddress targetAddress, byte[] message, TransportStateReference tmStateReference)
+            throws IOException {
+        DatagramChannel current = channel;
+        if (current == null || !current.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        current.send(ByteBuffer.wrap(message),
+                new InetSocketAddress(targetAddress.getInetAddress(), targetAddress.getPort()));
+    }
+
+    @Override
+    public synchronized void listen() throws IOException {
+        if (listenThread != null) {
+            throw new SocketException("Port already listening");
+        }
+        if (channel == null || !channel.isOpen()) {
+            channel = openChannel();
+        }
+        Thread thread = new Thread(this::receive, "snmp-nio-listen-" + channel.socket().getLocalPort());
+        thread.setDaemon(true);
+        listenThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Returns the address the channel is bound to, with the port chosen for it.
+     */
+    @Override
+    public UdpAddress getListenAddress() {
+        DatagramChannel current = channel;
+        return current != null ? new UdpAddress(udpAddress.getInetAddress(), current.socket().getLocalPort())
+                : udpAddress;
+    }
+
+    @Override
+    public boolean isListening() {
+        return listenThread != null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        Thread thread = listenThread;
+        listenThread = null;
+        DatagramChannel current = channel;
+        channel = null;
+        if (current != null) {
+            // Also ends a receive the listen thread is blocked in
+            current.close();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void receive() {
+        DatagramChannel current = channel;
+        while (current != null && listenThread == Thread.currentThread()) {
+            ByteBuffer buffer = acquireBuffer();
+            SocketAddress source;
+            try {
+                source = current.receive(buffer);
+            } catch (IOException e) {
+                if (listenThread == Thread.currentThread()) {
+                    LOG.warn("Failed to receive on {}, stopping", current, e);
+                    listenThread = null;
+                }
+                return;
+            }
+            buffer.flip();
+            InetSocketAddress from = (InetSocketAddress) source;
+            UdpAddress address = new UdpAddress(from.getAddress(), from.getPort());
+            ByteBuffer message = isV3(buffer) ? copy(buffer) : buffer;
+            if (message != buffer) {
+                releaseBuffer(buffer);
+            }
+
+            Runnable process = () -> {
+                try {
+                    fireProcessMessage(address, message, new TransportStateReference(this, address, null,
+                            SecurityLevel.undefined, SecurityLevel.undefined, false, current));
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to process message from {}", address, e);
+                } finally {
+                    if (message == buffer) {
+                        releaseBuffer(buffer);
+                    }
+                }
+            };
+            if (workerPool != null) {
+                workerPool.execute(new ProcessTask(process));
+            } else {
+                process.run();
+            }
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(getMaxInboundMessageSize());
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        // Buffers beyond the pool's capacity are left to the garbage collector
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Checks whether the message is an SNMPv3 one, from the version field following the length of the outer
+     * sequence.
+     */
+    private static boolean isV3(ByteBuffer message) {
+        int pos = message.position();
+        if (message.remaining() < 2 || message.get(pos) != 0x30) {
+            return false;
+        }
+        int lengthByte = message.get(pos + 1) & 0xff;
+        int versionAt = pos + 2 + (lengthByte < 0x80 ? 0 : lengthByte & 0x7f);
+        return versionAt + 2 < message.limit() && message.get(versionAt) == 0x02 && message.get(versionAt + 1) == 1
+                && message.get(versionAt + 2) == SnmpConstants.version3;
+    }
+
+    /**
+     * Copies the message to the heap. USM authenticates and decrypts SNMPv3 messages as byte arrays.
+     */
+    private static ByteBuffer copy(ByteBuffer message) {
+        ByteBuffer heap = ByteBuffer.allocate(message.remaining());
+        heap.put(message);
+        heap.flip();
+        return heap;
+    }
+
+    private static final class ProcessTask implements WorkerTask {
+        private final Runnable process;
+
+        ProcessTask(Runnable process) {
+            this.process = process;
+        }
+
+        @Override
+        public void run() {
+            process.run();
+        }
+
+        @Override
+        public void terminate() {
+        }
+
+        @Override
+        public void join() {
+        }
+
+        @Override
+        public void interrupt() {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.UsmCredentials;
+import org.snmp4j.smi.OID;
+
+/**
+ * A set of OIDs of one agent polled with GET at a fixed interval by the {@link Poller}.
+ */
+public final class PollJob {
+    private final long id;
+    private final Ipv4Address ipAddress;
+    private final String community;
+    private final UsmCredentials credentials;
+    private final List<OID> oids;
+    private final long intervalMillis;
+
+    /**
+     * Creates a job.
+     *
+     * @param community the community, or null for {@link SNMPImpl#DEFAULT_COMMUNITY}
+     * @param credentials the SNMPv3 credentials, may be null
+     */
+    public PollJob(long id, Ipv4Address ipAddress, String community, UsmCredentials credentials, List<OID> oids,
+            long intervalMillis) {
+        Preconditions.checkArgument(ipAddress != null, "No agent address");
+        Preconditions.checkArgument(oids != null && !oids.isEmpty(), "No OID to poll");
+        Preconditions.checkArgument(intervalMillis > 0, "Interval must be positive");
+        this.id = id;
+        this.ipAddress = ipAddress;
+        this.community = community != null ? community : SNMPImpl.DEFAULT_COMMUNITY;
+        this.credentials = UsmUsers.isV3(credentials) ? credentials : null;
+        this.oids = ImmutableList.copyOf(oids);
+        this.intervalMillis = intervalMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Ipv4Address getIpAddress() {
+        return ipAddress;
+    }
+
+    public String getCommunity() {
+        return community;
+    }
+
+    /**
+     * Returns the SNMPv3 credentials, or null if the job uses SNMPv2c with its community.
+     */
+    public UsmCredentials getCredentials() {
+        return credentials;
+    }
+
+    public List<OID> getOids() {
+        return oids;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PollJob{id=" + id + ", ipAddress=" + ipAddress.getValue() + ", oids=" + oids.size() + ", interval="
+                + intervalMillis + "ms}";
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import java.util.Collection;
+import java.util.List;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Receives the results of the jobs of a {@link Poller}. The methods are called on the thread which received the
+ * last response of a poll, so they must not block.
+ */
+public interface PollListener {
+
+    /**
+     * Receives the bindings of one poll of the job, in the order of its OIDs. OIDs the agent did not answer are left
+     * out.
+     *
+     * @param timestampNanos the {@link System#nanoTime()} at which the poll completed
+     */
+    void onResults(PollJob job, long timestampNanos, List<VariableBinding> bindings);
+
+    /**
+     * Called instead of {@link #onResults(PollJob, long, List)} if a poll of the job failed.
+     */
+    void onFailure(PollJob job, Throwable cause);
+
+    /**
+     * Called once the job was removed, so that state kept for its OIDs can be dropped. A poll of it which was running
+     * may still report its results afterwards.
+     *
+     * @param released the OIDs of the job which no other job of its agent polls
+     */
+    default void onRemoved(PollJob job, Collection<OID> released) {
+    }
+}
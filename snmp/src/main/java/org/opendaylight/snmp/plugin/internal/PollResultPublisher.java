@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.PollResult;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.PollResultBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.poll.result.Results;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.poll.result.ResultsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Publishes the results of poll jobs as poll-result notifications. Notifications are offered rather than put, so a
+ * full notification queue drops results instead of holding back the threads receiving responses. Counters carry
+ * their delta and rate since the previous poll, read from the {@link CounterRates}, which must be notified of the
+ * poll first.
+ */
+final class PollResultPublisher implements PollListener {
+    private static final Logger LOG = LoggerFactory.getLogger(PollResultPublisher.class);
+
+    private static final BigInteger UNSIGNED_LONG_MODULUS = BigInteger.ONE.shiftLeft(Long.SIZE);
+    private static final int RATE_FRACTION_DIGITS = 3;
+
+    private final NotificationPublishService notificationPublishService;
+    private final CounterRates counterRates;
+    private final LongAdder droppedCount = new LongAdder();
+
+    PollResultPublisher(NotificationPublishService notificationPublishService, CounterRates counterRates) {
+        this.notificationPublishService = notificationPublishService;
+        this.counterRates = counterRates;
+    }
+
+    @Override
+    public void onResults(PollJob job, long timestampNanos, List<VariableBinding> bindings) {
+        String device = job.getIpAddress().getValue();
+        List<Results> results = new ArrayList<>(bindings.size());
+        for (VariableBinding binding : bindings) {
+            ResultsBuilder result = new ResultsBuilder()
+                    .setOid(binding.getOid().toString())
+                    .setValue(binding.getVariable().toString());
+            if (binding.getVariable() instanceof Counter32 || binding.getVariable() instanceof Counter64) {
+                setRate(result, device, binding);
+            }
+            results.add(result.build());
+        }
+        publish(newResult(job).setResults(results).build());
+    }
+
+    @Override
+    public void onFailure(PollJob job, Throwable cause) {
+        publish(newResult(job).setResults(Collections.emptyList()).setErrorMessage(String.valueOf(cause.getMessage()))
+                .build());
+    }
+
+    /**
+     * Returns the number of results dropped since startup because the notification queue was full.
+     */
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    private void setRate(ResultsBuilder result, String device, VariableBinding binding) {
+        int slot = counterRates.find(device, binding.getOid());
+        if (slot < 0) {
+            return;
+        }
+        long delta = counterRates.getDelta(slot);
+        if (delta == CounterRates.NO_DELTA) {
+            return;
+        }
+        // Unsigned, a Counter64 delta may exceed Long.MAX_VALUE
+        BigInteger unsignedDelta = BigInteger.valueOf(delta);
+        result.setDelta(delta >= 0 ? unsignedDelta : unsignedDelta.add(UNSIGNED_LONG_MODULUS));
+        double rate = counterRates.getRate(slot);
+        if (!Double.isNaN(rate)) {
+            result.setRate(BigDecimal.valueOf(rate).setScale(RATE_FRACTION_DIGITS, RoundingMode.HALF_UP));
+        }
+    }
+
+    private static PollResultBuilder newResult(PollJob job) {
+        return new PollResultBuilder()
+                .setJobId(BigInteger.valueOf(job.getId()))
+                .setIpAddress(job.getIpAddress());
+    }
+
+    private void publish(PollResult result) {
+        if (notificationPublishService.offerNotification(result) == NotificationPublishService.REJECTED) {
+            droppedCount.increment();
+            LOG.debug("Dropped result of poll job {}, notification queue full", result.getJobId());
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.UsmCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Polls OIDs of agents at fixed intervals. Jobs of the same agent, credentials and interval form a group which is
+ * polled as one GET, so their OIDs share PDUs. Groups are scheduled on a {@link TimingWheel}: each group starts at a
+ * random point of its interval and every poll is delayed by a random jitter, so that groups added together do not
+ * poll together. A poll which is due while the previous poll of the group is still running is skipped.
+ */
+final class Poller implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Poller.class);
+
+    private final SnmpSession session;
+    private final TimingWheel wheel;
+    private final int jitterPercent;
+    private final Map<Long, PollJob> jobs = new ConcurrentHashMap<>();
+    private final Map<GroupKey, PollGroup> groups = new HashMap<>();
+    private final List<PollListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final LongAdder pollCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private volatile boolean closed;
+
+    Poller(SnmpSession session, SnmpConfig config) {
+        this.session = session;
+        this.jitterPercent = Math.max(0, Math.min(100, config.getPollJitterPercent()));
+        this.wheel = new TimingWheel(config.getPollTickMillis(), config.getPollWheelSize(), SnmpTimer.INSTANCE);
+    }
+
+    /**
+     * Parses jobs of the form {@code ip-address,interval-seconds,oid[,oid...]}, separated by semicolons, and adds
+     * them with the default community. Every job is parsed before any is added, so that either all or none are.
+     *
+     * @throws IllegalArgumentException if a job cannot be parsed
+     */
+    void addJobs(String jobList) {
+        List<Runnable> additions = new ArrayList<>();
+        for (String job : Splitter.on(';').trimResults().omitEmptyStrings().split(jobList)) {
+            List<String> fields = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(job);
+            if (fields.size() < 3) {
+                throw new IllegalArgumentException("Invalid poll job " + job
+                        + ", expected ip-address,interval-seconds,oid[,oid...]");
+            }
+            Ipv4Address ipAddress = new Ipv4Address(fields.get(0));
+            long intervalSeconds = Long.parseLong(fields.get(1));
+            if (intervalSeconds < 1) {
+                throw new IllegalArgumentException("Invalid poll job " + job + ", interval must be at least 1 second");
+            }
+            List<OID> oids = new ArrayList<>();
+            for (String oid : fields.subList(2, fields.size())) {
+                oids.add(new OID(oid));
+            }
+            additions.add(() -> addJob(ipAddress, null, null, oids, TimeUnit.SECONDS.toMillis(intervalSeconds)));
+        }
+        additions.forEach(Runnable::run);
+    }
+
+    /**
+     * Adds a job, which is first polled within its interval.
+     *
+     * @return the job
+     */
+    PollJob addJob(Ipv4Address ipAddress, String community, UsmCredentials credentials, List<OID> oids,
+            long intervalMillis) {
+        PollJob job = new PollJob(jobIds.incrementAndGet(), ipAddress, community, credentials, oids,
+                intervalMillis);
+        GroupKey key = new GroupKey(job);
+        PollGroup newGroup = null;
+        long phaseMillis = ThreadLocalRandom.current().nextLong(intervalMillis);
+        synchronized (groups) {
+            PollGroup group = groups.get(key);
+            if (group == null) {
+                group = new PollGroup(key, job, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(phaseMillis));
+                groups.put(key, group);
+                newGroup = group;
+            }
+            group.add(job);
+            jobs.put(job.getId(), job);
+        }
+        if (newGroup != null) {
+            wheel.schedule(newGroup::poll, phaseMillis, TimeUnit.MILLISECONDS);
+        }
+        LOG.debug("Added {}", job);
+        return job;
+    }
+
+    /**
+     * Removes a job. A poll of it which is running still completes. Listeners are told which of its OIDs no other job
+     * of the agent polls.
+     *
+     * @return false if there is no such job
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    boolean removeJob(long jobId) {
+        PollJob job;
+        Set<OID> released;
+        synchronized (groups) {
+            job = jobs.remove(jobId);
+            if (job == null) {
+                return false;
+            }
+            GroupKey key = new GroupKey(job);
+            PollGroup group = groups.get(key);
+            if (group != null && group.remove(job)) {
+                // Stops rescheduling
+                groups.remove(key);
+            }
+            released = new HashSet<>(job.getOids());
+            for (PollJob other : jobs.values()) {
+                if (other.getIpAddress().equals(job.getIpAddress())) {
+                    released.removeAll(other.getOids());
+                }
+            }
+        }
+        for (PollListener listener : listeners) {
+            try {
+                listener.onRemoved(job, released);
+            } catch (RuntimeException e) {
+                LOG.warn("Poll listener {} failed on removal of job {}", listener, jobId, e);
+            }
+        }
+        LOG.debug("Removed poll job {}", jobId);
+        return true;
+    }
+
+    PollJob getJob(long jobId) {
+        return jobs.get(jobId);
+    }
+
+    void addListener(PollListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(PollListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of polls sent since startup.
+     */
+    long getPollCount() {
+        return pollCount.sum();
+    }
+
+    /**
+     * Returns the number of polls skipped since startup because the previous poll of their group was still running.
+     */
+    long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    /**
+     * Checks whether the poller's timing wheel is ticking, which it only does while jobs are polled.
+     */
+    boolean isTicking() {
+        return wheel.isTicking();
+    }
+
+    int getGroupCount() {
+        synchronized (groups) {
+            return groups.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        wheel.stop();
+    }
+
+    private long jitterMillis(long intervalMillis) {
+        long maxJitter = intervalMillis * jitterPercent / 100;
+        return maxJitter > 0 ? ThreadLocalRandom.current().nextLong(maxJitter) : 0;
+    }
+
+    /**
+     * Hands the results of a job to every listener. A listener which throws does not keep the others from them.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void notifyResults(PollJob job, long timestampNanos, List<VariableBinding> bindings) {
+        for (PollListener listener : listeners) {
+            try {
+                listener.onResults(job, timestampNanos, bindings);
+            } catch (RuntimeException e) {
+                LOG.warn("Poll listener {} failed on results of job {}", listener, job.getId(), e);
+            }
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void notifyFailure(PollJob job, Throwable cause) {
+        for (PollListener listener : listeners) {
+            try {
+                listener.onFailure(job, cause);
+            } catch (RuntimeException e) {
+                LOG.warn("Poll listener {} failed on failure of job {}", listener, job.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * The jobs of one agent, credentials and interval. Their OIDs are merged into a single GET, rebuilt only when
+     * jobs are added or removed.
+     */
+    private final class PollGroup {
+        private final GroupKey key;
+        private final PollJob template;
+        // Guarded by this
+        private final List<PollJob> members = new ArrayList<>();
+        private SnmpGetInput input;
+        private boolean running;
+        private boolean removed;
+        // Nominal time of the current poll, which jitter does not shift
+        private long nextPollNanos;
+
+        PollGroup(GroupKey key, PollJob template, long firstPollNanos) {
+            this.key = key;
+            this.template = template;
+            this.nextPollNanos = firstPollNanos;
+        }
+
+        synchronized void add(PollJob job) {
+            members.add(job);
+            input = null;
+        }
+
+        /**
+         * Removes a job. Returns true if it was the last one, which stops the group.
+         */
+        synchronized boolean remove(PollJob job) {
+            members.remove(job);
+            input = null;
+            removed = members.isEmpty();
+            return removed;
+        }
+
+        void poll() {
+            List<PollJob> polled;
+            SnmpGetInput getInput;
+            synchronized (this) {
+                if (removed || closed) {
+                    return;
+                }
+                nextPollNanos += TimeUnit.MILLISECONDS.toNanos(key.intervalMillis);
+                scheduleNext();
+                if (running) {
+                    skippedCount.increment();
+                    LOG.debug("Skipping poll of {}, the previous one is still running", key.ipAddress);
+                    return;
+                }
+                running = true;
+                polled = new ArrayList<>(members);
+                if (input == null) {
+                    input = buildInput();
+                }
+                getInput = input;
+            }
+
+            pollCount.increment();
+            Futures.addCallback(new AsyncGetHandler(getInput, session).getListResponse(),
+                new FutureCallback<List<VariableBinding>>() {
+                    @Override
+                    public void onSuccess(List<VariableBinding> bindings) {
+                        complete();
+                        distribute(polled, bindings);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable cause) {
+                        complete();
+                        LOG.debug("Poll of {} failed", key.ipAddress, cause);
+                        for (PollJob job : polled) {
+                            notifyFailure(job, cause);
+                        }
+                    }
+                }, MoreExecutors.directExecutor());
+        }
+
+        private synchronized void complete() {
+            running = false;
+        }
+
+        private void scheduleNext() {
+            long delayNanos = nextPollNanos - System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(jitterMillis(key.intervalMillis));
+            wheel.schedule(this::poll, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        }
+
+        private SnmpGetInput buildInput() {
+            Set<OID> oids = new LinkedHashSet<>();
+            for (PollJob job : members) {
+                oids.addAll(job.getOids());
+            }
+            List<String> oidStrings = new ArrayList<>(oids.size());
+            for (OID oid : oids) {
+                oidStrings.add(oid.toString());
+            }
+            SnmpGetInputBuilder builder = template.getCredentials() != null
+                    ? new SnmpGetInputBuilder(template.getCredentials()) : new SnmpGetInputBuilder();
+            return builder
+                    .setIpAddress(template.getIpAddress())
+                    .setCommunity(template.getCommunity())
+                    .setGetType(SnmpGetType.GET)
+                    .setOids(oidStrings)
+                    .build();
+        }
+
+        /**
+         * Hands each job the bindings of its OIDs.
+         */
+        private void distribute(List<PollJob> polled, List<VariableBinding> bindings) {
+            long timestampNanos = System.nanoTime();
+            Map<OID, VariableBinding> byOid = new HashMap<>(bindings.size() * 2);
+            for (VariableBinding binding : bindings) {
+                byOid.put(binding.getOid(), binding);
+            }
+            for (PollJob job : polled) {
+                List<VariableBinding> jobBindings = new ArrayList<>(job.getOids().size());
+                for (OID oid : job.getOids()) {
+                    VariableBinding binding = byOid.get(oid);
+                    if (binding != null) {
+                        jobBindings.add(binding);
+                    }
+                }
+                notifyResults(job, timestampNanos, jobBindings);
+            }
+        }
+    }
+
+    private static final class GroupKey {
+        private final String ipAddress;
+        private final String community;
+        private final String securityName;
+        private final int securityLevel;
+        private final String credentials;
+        private final long intervalMillis;
+        private final int hashCode;
+
+        GroupKey(PollJob job) {
+            ipAddress = job.getIpAddress().getValue();
+            community = job.getCommunity();
+            securityName = job.getCredentials() != null ? job.getCredentials().getSecurityName() : null;
+            securityLevel = job.getCredentials() != null ? UsmUsers.securityLevel(job.getCredentials()) : 0;
+            // Jobs with other passphrases are polled with their own
+            credentials = securityName != null ? UsmUsers.fingerprint(job.getCredentials()) : null;
+            intervalMillis = job.getIntervalMillis();
+            hashCode = Objects.hash(ipAddress, community, securityName, securityLevel, credentials, intervalMillis);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) obj;
+            return intervalMillis == other.intervalMillis && securityLevel == other.securityLevel
+                    && ipAddress.equals(other.ipAddress) && community.equals(other.community)
+                    && Objects.equals(securityName, other.securityName)
+                    && Objects.equals(credentials, other.credentials);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded executor for RPC work that has to wait on SNMP responses. Backed either by a fixed-size thread pool with
+ * a bounded queue or, when requested and the JVM supports it, by virtual threads. In both modes the number of
+ * accepted but unfinished tasks is capped and excess submissions are rejected.
+ */
+final class RequestExecutor implements Executor, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestExecutor.class);
+
+    private final ExecutorService delegate;
+    private final ThreadPoolExecutor pool;
+    private final int maxPending;
+    private final long shutdownTimeout;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+
+    RequestExecutor(SnmpConfig config) {
+        int maxThreads = Math.max(1, config.getExecutorMaxThreads());
+        int queueSize = Math.max(1, config.getExecutorQueueSize());
+        maxPending = maxThreads + queueSize;
+        shutdownTimeout = config.getExecutorShutdownTimeout();
+
+        ExecutorService virtual = config.isExecutorVirtualThreads() ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            LOG.info("Using virtual threads for SNMP requests, at most {} pending", maxPending);
+            pool = null;
+            delegate = virtual;
+        } else {
+            pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat("snmp-request-%d").setDaemon(true).build());
+            pool.allowCoreThreadTimeOut(true);
+            delegate = pool;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.increment();
+            throw new RejectedExecutionException("Too many pending SNMP requests (" + maxPending + ")");
+        }
+
+        try {
+            delegate.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    pending.decrementAndGet();
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of tasks accepted but not yet started.
+     */
+    int getQueueDepth() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the number of tasks accepted but not yet finished.
+     */
+    int getPendingCount() {
+        return pending.get();
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    long getCompletedCount() {
+        return completed.sum();
+    }
+
+    @Override
+    public void close() {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                LOG.warn("SNMP requests did not finish in {} ms, interrupting {} of them", shutdownTimeout,
+                        pending.get());
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            delegate.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            LOG.warn("Virtual threads are not available in this JVM, falling back to a thread pool", e);
+            return null;
+        }
+    }
+}
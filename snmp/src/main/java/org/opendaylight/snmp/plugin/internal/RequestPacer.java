@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.Address;
+
+/**
+ * Sits in front of {@link Snmp#send(PDU, Target, Object, ResponseListener)} and limits, per agent, the number of
+ * requests awaiting a response and the rate at which requests are sent. Requests over either limit wait in a
+ * per-agent queue and are sent as responses arrive or tokens become available; no thread blocks in the meantime.
+ * The round-trip time of every request, from the moment it is actually sent, is reported to {@link AgentTimeouts},
+ * and whether it got a response to the {@link DeviceHealthRegistry}.
+ *
+ * <p>An agent's queue is only kept while it is in use: once no request to the agent is in flight or waiting, and its
+ * tokens have refilled, the queue removes itself, so that its limits are never lost while requests are pending.
+ */
+final class RequestPacer {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestPacer.class);
+
+    private final int maxInFlight;
+    private final double permitsPerNano;
+    private final double burst;
+    private final int maxQueued;
+    private final ConcurrentMap<Address, AgentQueue> agents = new ConcurrentHashMap<>();
+    private final AgentTimeouts timeouts;
+    private final DeviceHealthRegistry deviceHealth;
+    private final LongAdder queuedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    RequestPacer(SnmpConfig config, AgentTimeouts timeouts, DeviceHealthRegistry deviceHealth) {
+        this.timeouts = timeouts;
+        this.deviceHealth = deviceHealth;
+        maxInFlight = config.getAgentMaxInFlight() > 0 ? config.getAgentMaxInFlight() : Integer.MAX_VALUE;
+        permitsPerNano = config.getAgentRequestsPerSecond() / (double) TimeUnit.SECONDS.toNanos(1);
+        burst = Math.max(1, config.getAgentRequestBurst());
+        maxQueued = Math.max(0, config.getAgentMaxQueued());
+    }
+
+    /**
+     * Sends the request now if the agent's limits allow, otherwise queues it.
+     *
+     * @param target the target of this request only, whose timeout is set to the agent's when it is sent
+     * @throws IOException if sending fails or the agent's queue is full
+     */
+    void send(SnmpTransports transports, PDU pdu, Target target, ResponseListener listener) throws IOException {
+        if (maxInFlight == Integer.MAX_VALUE && permitsPerNano <= 0 || target.getAddress() == null) {
+            new PacedRequest(null, transports, pdu, target, listener).send();
+            return;
+        }
+        AgentQueue agent;
+        do {
+            // a queue may remove itself between being looked up and being submitted to, then take a new one
+            agent = agents.computeIfAbsent(target.getAddress(), AgentQueue::new);
+        } while (!agent.submit(new PacedRequest(agent, transports, pdu, target, listener)));
+    }
+
+    /**
+     * Returns the number of requests which had to wait for their agent since startup.
+     */
+    long getQueuedCount() {
+        return queuedCount.sum();
+    }
+
+    /**
+     * Returns the total time requests spent waiting for their agent, in milliseconds.
+     */
+    long getQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(queueWaitNanos.sum());
+    }
+
+    /**
+     * Returns the longest time a request waited for its agent, in milliseconds.
+     */
+    long getMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos.get());
+    }
+
+    /**
+     * Returns the number of requests which failed because their agent's queue was full since startup.
+     */
+    long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Returns the number of requests currently waiting for the given agent.
+     */
+    int getWaitingCount(Address address) {
+        AgentQueue agent = agents.get(address);
+        return agent != null ? agent.getWaitingCount() : 0;
+    }
+
+    /**
+     * Returns the number of agents which currently have a queue.
+     */
+    int getAgentCount() {
+        return agents.size();
+    }
+
+    private void recordWait(long waitNanos) {
+        queuedCount.increment();
+        queueWaitNanos.add(waitNanos);
+        maxQueueWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private final class AgentQueue {
+        private final Address address;
+        private final Deque<PacedRequest> waiting = new ArrayDeque<>();
+        private int inFlight;
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+        private boolean drainScheduled;
+        private boolean removalScheduled;
+        private boolean removed;
+
+        AgentQueue(Address address) {
+            this.address = address;
+        }
+
+        /**
+         * Sends or queues the request.
+         *
+         * @return false if this queue has been removed and the request was neither sent nor queued
+         */
+        boolean submit(PacedRequest request) throws IOException {
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                if (!waiting.isEmpty() || !tryAcquire()) {
+                    if (waiting.size() >= maxQueued) {
+                        rejectedCount.increment();
+                        throw new IOException("Too many requests queued for " + address);
+                    }
+                    request.queuedAt = System.nanoTime();
+                    waiting.add(request);
+                    scheduleDrain();
+                    return true;
+                }
+            }
+
+            try {
+                request.send();
+            } catch (IOException e) {
+                onComplete();
+                throw e;
+            }
+            return true;
+        }
+
+        void onComplete() {
+            synchronized (this) {
+                inFlight--;
+            }
+            drain();
+        }
+
+        synchronized int getWaitingCount() {
+            return waiting.size();
+        }
+
+        private void drain() {
+            List<PacedRequest> ready = new ArrayList<>();
+            synchronized (this) {
+                drainScheduled = false;
+                while (!waiting.isEmpty() && tryAcquire()) {
+                    ready.add(waiting.poll());
+                }
+                scheduleDrain();
+                removeIfIdle();
+            }
+
+            long now = System.nanoTime();
+            for (PacedRequest request : ready) {
+                long waitNanos = now - request.queuedAt;
+                recordWait(waitNanos);
+                LOG.trace("Request to {} waited {} us", address, TimeUnit.NANOSECONDS.toMicros(waitNanos));
+                request.dispatch();
+            }
+        }
+
+        /**
+         * Takes an in-flight slot and a token, if both are available. Must hold the lock.
+         */
+        private boolean tryAcquire() {
+            if (inFlight >= maxInFlight) {
+                return false;
+            }
+            if (permitsPerNano > 0) {
+                refill();
+                if (tokens < 1) {
+                    return false;
+                }
+                tokens--;
+            }
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * Schedules a drain for when the next token is due, if requests wait for a token rather than for a response.
+         * Must hold the lock.
+         */
+        private void scheduleDrain() {
+            if (drainScheduled || waiting.isEmpty() || inFlight >= maxInFlight || permitsPerNano <= 0) {
+                return;
+            }
+            long delay = (long) Math.ceil((1 - tokens) / permitsPerNano);
+            drainScheduled = true;
+            SnmpTimer.INSTANCE.schedule(this::drain, Math.max(1, delay), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Removes this queue from the pacer if no request is in flight or waiting and its tokens are full, or
+         * schedules another check for when they will be. Must hold the lock.
+         */
+        private void removeIfIdle() {
+            if (removed || removalScheduled || drainScheduled || inFlight > 0 || !waiting.isEmpty()) {
+                return;
+            }
+            if (permitsPerNano > 0) {
+                refill();
+                if (tokens < burst) {
+                    long delay = (long) Math.ceil((burst - tokens) / permitsPerNano);
+                    removalScheduled = true;
+                    SnmpTimer.INSTANCE.schedule(this::onRemovalDue, Math.max(1, delay), TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            removed = true;
+            agents.remove(address, this);
+        }
+
+        private synchronized void onRemovalDue() {
+            removalScheduled = false;
+            removeIfIdle();
+        }
+
+        /**
+         * Adds the tokens accrued since the last refill. Must hold the lock.
+         */
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+            refilledAt = now;
+        }
+    }
+
+    private final class PacedRequest implements ResponseListener {
+        private final AgentQueue agent;
+        private final SnmpTransports transports;
+        private final PDU pdu;
+        private final Target target;
+        private final ResponseListener listener;
+        private long queuedAt;
+        private long sentAt;
+        private long sentTimeout;
+
+        PacedRequest(AgentQueue agent, SnmpTransports transports, PDU pdu, Target target,
+                ResponseListener listener) {
+            this.agent = agent;
+            this.transports = transports;
+            this.pdu = pdu;
+            this.target = target;
+            this.listener = listener;
+        }
+
+        void send() throws IOException {
+            if (target.getAddress() != null) {
+                // The agent's current timeout, which may have changed while the request was queued
+                target.setTimeout(timeouts.getTimeout(target.getAddress()));
+            }
+            sentTimeout = target.getTimeout();
+            sentAt = System.nanoTime();
+            transports.send(pdu, target, this);
+        }
+
+        /**
+         * Sends a request that waited in the queue. Failures are reported to the listener as an event without a
+         * response.
+         */
+        void dispatch() {
+            try {
+                send();
+            } catch (IOException e) {
+                LOG.debug("Failed to send queued request to {}", target.getAddress(), e);
+                agent.onComplete();
+                listener.onResponse(new ResponseEvent(transports.getSnmp(), null, pdu, null, null, e));
+            }
+        }
+
+        @Override
+        public void onResponse(ResponseEvent event) {
+            // acknowledge receipt of the event for this listener, the one the request was sent with
+            ((Snmp) event.getSource()).cancel(event.getRequest(), this);
+            if (agent != null) {
+                agent.onComplete();
+            }
+            if (target.getAddress() != null) {
+                if (event.getResponse() != null) {
+                    timeouts.onResponse(target.getAddress(), System.nanoTime() - sentAt, sentTimeout);
+                    deviceHealth.onResponse(target.getAddress());
+                } else if (event.getError() == null) {
+                    timeouts.onTimeout(target.getAddress());
+                    deviceHealth.onTimeout(target);
+                }
+            }
+            listener.onResponse(event);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.output.Results;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+
+/**
+ * Read-through cache of GET results for objects which rarely change, such as sysDescr or the entPhysicalTable.
+ * How long a value is kept is configured per OID subtree; objects outside of every configured subtree are never
+ * cached, and neither are noSuchObject and noSuchInstance, which an agent returns until it has initialized an object.
+ * A GET is answered from the cache as far as possible, and only the OIDs not cached are requested.
+ */
+final class ResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCache.class);
+
+    // The values of exception bindings, as converted to results
+    private static final Set<String> EXCEPTION_VALUES = ImmutableSet.of(Null.noSuchObject.toString(),
+            Null.noSuchInstance.toString(), Null.endOfMibView.toString());
+
+    private final List<TtlRule> ttlRules;
+    private final Cache<ResultKey, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ResultCache(SnmpConfig config) {
+        ttlRules = parseTtlRules(config.getResultCacheTtls());
+        long maxTtl = 0;
+        for (TtlRule rule : ttlRules) {
+            maxTtl = Math.max(maxTtl, rule.ttlNanos);
+        }
+        entries = CacheBuilder.newBuilder()
+                .maximumSize(config.getResultCacheSize())
+                .expireAfterWrite(Math.max(1, maxTtl), TimeUnit.NANOSECONDS)
+                .build();
+    }
+
+    /**
+     * Checks whether the get goes through the cache. Only GETs do; their results do not depend on other objects.
+     */
+    boolean isCacheable(SnmpGetInput input) {
+        return SnmpGetType.GET.equals(input.getGetType()) && !ttlRules.isEmpty();
+    }
+
+    /**
+     * Answers the get from the cache, requesting the OIDs which are not cached through the given function. A get
+     * which bypasses the cache requests every OID, and refreshes the cached values with the results.
+     */
+    ListenableFuture<RpcResult<SnmpGetOutput>> get(SnmpGetInput input,
+            Function<SnmpGetInput, ListenableFuture<RpcResult<SnmpGetOutput>>> request) {
+        String ip = input.getIpAddress() != null ? input.getIpAddress().getValue() : null;
+        // SNMPv3 results are cached per user, as agents may give users different views
+        String securityName = UsmUsers.isV3(input) ? input.getSecurityName() : null;
+        // and per credentials, so that a request with other passphrases does not read them
+        String credentials = securityName != null ? UsmUsers.fingerprint(input) : null;
+        String community = securityName != null ? null
+                : input.getCommunity() != null ? input.getCommunity() : SNMPImpl.DEFAULT_COMMUNITY;
+        List<OID> oids = AsyncGetHandler.requestedOids(input);
+        boolean bypass = Boolean.TRUE.equals(input.isBypassCache());
+
+        long now = System.nanoTime();
+        Results[] cached = new Results[oids.size()];
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < cached.length; i++) {
+            // Objects outside of the cached subtrees are neither looked up nor counted
+            if (bypass || ttlFor(oids.get(i)) == 0) {
+                missing.add(oids.get(i).toString());
+                continue;
+            }
+            Entry entry = entries.getIfPresent(new ResultKey(ip, community, securityName, credentials, oids.get(i)));
+            if (entry != null && entry.expiresAt - now > 0) {
+                cached[i] = entry.result;
+                hits.increment();
+            } else {
+                missing.add(oids.get(i).toString());
+                misses.increment();
+            }
+        }
+        if (missing.isEmpty()) {
+            LOG.debug("Answered GET of {} OIDs on {} from cache", cached.length, ip);
+            return RpcResultBuilder.success(new SnmpGetOutputBuilder().setResults(merge(oids, cached, null)).build())
+                    .buildFuture();
+        }
+
+        SnmpGetInput missingInput = new SnmpGetInputBuilder(input).setOid(null).setOids(missing).build();
+        return Futures.transform(request.apply(missingInput), result -> {
+            if (!result.isSuccessful() || result.getResult() == null || result.getResult().getResults() == null) {
+                return result;
+            }
+
+            Map<String, Results> fetched = new HashMap<>();
+            long fetchedAt = System.nanoTime();
+            for (Results fetchedResult : result.getResult().getResults()) {
+                fetched.put(fetchedResult.getOid(), fetchedResult);
+                OID oid = new OID(fetchedResult.getOid());
+                long ttl = ttlFor(oid);
+                if (ttl > 0 && !EXCEPTION_VALUES.contains(fetchedResult.getValue())) {
+                    entries.put(new ResultKey(ip, community, securityName, credentials, oid),
+                            new Entry(fetchedResult, fetchedAt + ttl));
+                }
+            }
+            return RpcResultBuilder.success(new SnmpGetOutputBuilder(result.getResult())
+                    .setResults(merge(oids, cached, fetched)).build()).build();
+        }, MoreExecutors.directExecutor());
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long size() {
+        return entries.size();
+    }
+
+    void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * Drops the values cached for the agent in the subtree of an object which was set, for every community and user.
+     */
+    void invalidate(String ip, OID oid) {
+        for (TtlRule rule : ttlRules) {
+            if (oid.startsWith(rule.subtree)) {
+                int before = entries.asMap().size();
+                entries.asMap().keySet().removeIf(key -> ip.equals(key.ip) && key.oid.startsWith(rule.subtree));
+                LOG.debug("Set of {} on {} dropped {} cached results", oid, ip, before - entries.asMap().size());
+                return;
+            }
+        }
+    }
+
+    private static List<Results> merge(List<OID> oids, Results[] cached, Map<String, Results> fetched) {
+        List<Results> results = new ArrayList<>(oids.size());
+        for (int i = 0; i < cached.length; i++) {
+            Results result = cached[i] != null ? cached[i] : fetched.get(oids.get(i).toString());
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the time to live of the object in nanoseconds, from the most specific subtree containing it.
+     */
+    private long ttlFor(OID oid) {
+        for (TtlRule rule : ttlRules) {
+            if (oid.startsWith(rule.subtree)) {
+                return rule.ttlNanos;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parses a comma-separated list of subtree=seconds pairs, most specific subtree first.
+     */
+    static List<TtlRule> parseTtlRules(String ttls) {
+        List<TtlRule> rules = new ArrayList<>();
+        if (ttls == null) {
+            return rules;
+        }
+        for (String rule : Splitter.on(',').trimResults().omitEmptyStrings().split(ttls)) {
+            List<String> parts = Splitter.on('=').trimResults().splitToList(rule);
+            try {
+                if (parts.size() != 2) {
+                    throw new IllegalArgumentException("Expected subtree=seconds");
+                }
+                rules.add(new TtlRule(new OID(parts.get(0)), TimeUnit.SECONDS.toNanos(Long.parseLong(parts.get(1)))));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Ignoring invalid result cache TTL {}", rule, e);
+            }
+        }
+        rules.sort(Comparator.comparingInt((TtlRule rule) -> rule.subtree.size()).reversed());
+        return rules;
+    }
+
+    static final class TtlRule {
+        private final OID subtree;
+        private final long ttlNanos;
+
+        TtlRule(OID subtree, long ttlNanos) {
+            this.subtree = subtree;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+
+    private static final class Entry {
+        private final Results result;
+        private final long expiresAt;
+
+        Entry(Results result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class ResultKey {
+        private final String ip;
+        private final String community;
+        private final String securityName;
+        private final String credentials;
+        private final OID oid;
+        private final int hashCode;
+
+        ResultKey(String ip, String community, String securityName, String credentials, OID oid) {
+            this.ip = ip;
+            this.community = community;
+            this.securityName = securityName;
+            this.credentials = credentials;
+            this.oid = oid;
+            this.hashCode = Objects.hash(ip, community, securityName, credentials, oid);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ResultKey)) {
+                return false;
+            }
+            ResultKey other = (ResultKey) obj;
+            return Objects.equals(ip, other.ip) && Objects.equals(community, other.community)
+                    && Objects.equals(securityName, other.securityName)
+                    && Objects.equals(credentials, other.credentials) && oid.equals(other.oid);
+        }
+    }
+}
@@ -8,55 +8,114 @@
 package org.opendaylight.snmp.plugin.internal;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.interfaces.group.IfEntry;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.interfaces.group.IfEntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.AddPollJobInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.AddPollJobOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.AddPollJobOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetInterfacesInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetInterfacesOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetInterfacesOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetNodePropertiesInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetNodePropertiesOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetNodePropertiesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetStatisticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.GetStatisticsOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.RemovePollJobInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.RemovePollJobOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.RemovePollJobOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetMultiInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetMultiOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetType;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpService;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpSetInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpSetOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpWalkStreamInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpWalkStreamOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpWalkStreamOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.AgentPacingBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.BulkWalksBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.DeviceHealthBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.RequestExecutorBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.ResultCacheBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.bulk.walks.Agents;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.get.statistics.output.bulk.walks.AgentsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.snmp.get.output.Results;
 import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.CommunityTarget;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
 import org.snmp4j.Snmp;
 import org.snmp4j.Target;
+import org.snmp4j.UserTarget;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
 import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
 import org.snmp4j.smi.Address;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.UdpAddress;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
 
 public class SNMPImpl implements SnmpService, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(SNMPImpl.class);
     static final String DEFAULT_COMMUNITY = "public";
     private Snmp snmp;
+    private ThreadPool dispatcherPool;
+    private final RequestExecutor executor;
+    // Puts walk-chunk notifications, which wait while the notification queue is full. One thread is enough, all of
+    // them wait on the same queue.
+    private final ExecutorService publishExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("snmp-walk-publish-%d").setDaemon(true).build());
+    private final SnmpSession session;
+    private final int multiGetMaxInFlight;
+    private final AtomicLong walkIds = new AtomicLong();
+    private volatile NotificationPublishService notificationPublishService;
+    private final Poller poller;
+    private PollResultPublisher pollResultPublisher;
+    private final CounterRates counterRates;
+    private final InterfaceSnapshots interfaceSnapshots;
     static final Integer SNMP_LISTEN_PORT = 161;
     static final int RETRIES = 5;
     static final int TIMEOUT = 1000;
-    static final int MAXREPETITIONS = 10000;
+    private static final int COUNTER_RATES_CAPACITY = 1024;
+    private static final String IF_INDEX_COLUMN = "ifIndex";
 
     // enum representing node's properties such as image name, serial number etc
     public enum FieldEnum {
@@ -80,17 +139,77 @@ public class SNMPImpl implements SnmpService, AutoCloseable {
 
 
     public SNMPImpl() {
-        this(initSnmp());
+        this(new SnmpConfig());
+    }
+
+    public SNMPImpl(SnmpConfig config) {
+        this(config, config.getDispatcherThreads() > 1
+                ? ThreadPool.create("snmp-dispatcher", config.getDispatcherThreads()) : null);
+    }
+
+    private SNMPImpl(SnmpConfig config, ThreadPool dispatcherPool) {
+        this(initSnmp(config, dispatcherPool), config);
+        this.dispatcherPool = dispatcherPool;
     }
 
     SNMPImpl(Snmp snmp) {
+        this(snmp, new SnmpConfig());
+    }
+
+    SNMPImpl(Snmp snmp, SnmpConfig config) {
         this.snmp = Preconditions.checkNotNull(snmp);
+        this.executor = new RequestExecutor(config);
+        this.session = new SnmpSession(snmp, config);
+        this.multiGetMaxInFlight = config.getMultiGetMaxInFlight();
+        this.interfaceSnapshots = new InterfaceSnapshots(session, config, executor);
+        this.poller = new Poller(session, config);
+        this.counterRates = new CounterRates(COUNTER_RATES_CAPACITY, config.isCounterRatesOffHeap());
+        poller.addListener(counterRates);
+        try {
+            poller.addJobs(config.getPollJobs());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid poll-jobs configuration, not polling any of its jobs", e);
+        }
+    }
+
+    public synchronized void setNotificationPublishService(NotificationPublishService notificationPublishService) {
+        this.notificationPublishService = notificationPublishService;
+        if (pollResultPublisher != null) {
+            poller.removeListener(pollResultPublisher);
+            pollResultPublisher = null;
+        }
+        if (notificationPublishService != null) {
+            pollResultPublisher = new PollResultPublisher(notificationPublishService, counterRates);
+            poller.addListener(pollResultPublisher);
+        }
     }
 
-    private static Snmp initSnmp() {
+    /**
+     * Creates the SNMP session with the configured number of UDP transport mappings. With a dispatcher pool, received
+     * messages are decoded and their listeners called on its threads rather than on the listen thread of their
+     * transport mapping. The NIO transport hands its messages to the pool itself, as it has to know when their
+     * buffers are free again.
+     */
+    private static Snmp initSnmp(SnmpConfig config, ThreadPool dispatcherPool) {
         Snmp snmp = null;
         try {
-            snmp = new Snmp(new DefaultUdpTransportMapping());
+            SecurityProtocols.getInstance().addDefaultProtocols();
+            // The USM is the session's own rather than added to the global SecurityModels, so that sessions do
+            // not share users
+            USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+
+            MessageDispatcher dispatcher = new MessageDispatcherImpl();
+            if (dispatcherPool != null && !config.isNioTransport()) {
+                dispatcher = new MultiThreadedMessageDispatcher(dispatcherPool, dispatcher);
+            }
+            dispatcher.addMessageProcessingModel(new MPv1());
+            dispatcher.addMessageProcessingModel(new MPv2c());
+            dispatcher.addMessageProcessingModel(new MPv3(usm));
+            snmp = new Snmp(dispatcher);
+            for (int i = 0; i < Math.max(1, config.getTransportCount()); i++) {
+                snmp.addTransportMapping(SnmpTransports.createUdpTransport(config, dispatcherPool));
+            }
+            snmp.setTimeoutModel(new AgentTimeouts.BackoffTimeoutModel(config));
             snmp.listen();
         } catch (IOException e) {
             LOG.warn("Failed to create Snmp instance", e);
@@ -98,12 +217,12 @@ public class SNMPImpl implements SnmpService, AutoCloseable {
         return snmp;
     }
 
+    /**
+     * Builds a new target for the agent at the given address. Handlers get theirs from the {@link TargetCache}.
+     */
     static Target getTargetForIp(Ipv4Address address, String community) {
-        Address addr = null;
-        try {
-            addr = new UdpAddress(Inet4Address.getByName(address.getValue()), SNMP_LISTEN_PORT);
-        } catch (UnknownHostException e) {
-            LOG.warn("Failed to create UDP Address", e);
+        Address addr = getAddress(address);
+        if (addr == null) {
             return null;
         }
 
@@ -116,60 +235,271 @@ public class SNMPImpl implements SnmpService, AutoCloseable {
         return communityTarget;
     }
 
+    /**
+     * Builds a new SNMPv3 target of a USM user for the agent at the given address. The user must be in the USM user
+     * table of the session the target is used with.
+     */
+    static Target getUserTargetForIp(Ipv4Address address, String securityName, int securityLevel) {
+        Address addr = getAddress(address);
+        if (addr == null) {
+            return null;
+        }
+
+        UserTarget userTarget = new UserTarget();
+        userTarget.setSecurityName(new OctetString(securityName));
+        userTarget.setSecurityLevel(securityLevel);
+        userTarget.setAddress(addr);
+        userTarget.setRetries(RETRIES);
+        userTarget.setTimeout(TIMEOUT);
+        userTarget.setVersion(SnmpConstants.version3);
+        return userTarget;
+    }
+
+    private static Address getAddress(Ipv4Address address) {
+        try {
+            return new UdpAddress(Inet4Address.getByName(address.getValue()), SNMP_LISTEN_PORT);
+        } catch (UnknownHostException e) {
+            LOG.warn("Failed to create UDP Address", e);
+            return null;
+        }
+    }
+
     @Override
     public ListenableFuture<RpcResult<SnmpGetOutput>> snmpGet(SnmpGetInput input) {
-        LOG.debug("Sending {} SNMP request for host: {}, OID: {}, Community: {}", input.getGetType(),
-                input.getIpAddress(), input.getOid(), input.getCommunity());
-        AsyncGetHandler getHandler = new AsyncGetHandler(input, snmp);
-        return getHandler.getRpcResponse();
+        LOG.debug("Sending {} SNMP request for host: {}, OID: {}, OIDs: {}, Community: {}", input.getGetType(),
+                input.getIpAddress(), input.getOid(), input.getOids(), input.getCommunity());
+        return session.get(input);
     }
 
     @Override
-    public ListenableFuture<RpcResult<SnmpSetOutput>> snmpSet(SnmpSetInput input) {
-        return new AsyncSetHandler(input, snmp).getRpcResponse();
+    public ListenableFuture<RpcResult<SnmpGetMultiOutput>> snmpGetMulti(SnmpGetMultiInput input) {
+        LOG.debug("Sending {} SNMP requests to {} targets", input.getGetType(),
+                input.getTargets() != null ? input.getTargets().size() : 0);
+        return new MultiGetHandler(input, session, multiGetMaxInFlight).getRpcResponse();
     }
 
     @Override
-    public ListenableFuture<RpcResult<GetInterfacesOutput>> getInterfaces(final GetInterfacesInput getInterfacesInput) {
+    public ListenableFuture<RpcResult<SnmpWalkStreamOutput>> snmpWalkStream(SnmpWalkStreamInput input) {
+        NotificationPublishService publishService = notificationPublishService;
+        if (publishService == null) {
+            return RpcResultBuilder.<SnmpWalkStreamOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, "Notifications are not available").buildFuture();
+        }
 
-        final SettableFuture<RpcResult<GetInterfacesOutput>> settableFuture = SettableFuture.create();
+        BigInteger walkId = BigInteger.valueOf(walkIds.incrementAndGet());
+        LOG.debug("Starting streaming walk {} of {} on {}", walkId, input.getOid(), input.getIpAddress());
+        SnmpGetInput getInput = new SnmpGetInputBuilder(input)
+                .setIpAddress(input.getIpAddress())
+                .setOid(input.getOid())
+                .setCommunity(input.getCommunity())
+                .setGetType(SnmpGetType.GETWALK)
+                .build();
+        new AsyncGetHandler(getInput, session, new WalkChunkPublisher(walkId, publishService, publishExecutor))
+                .getRpcResponse();
+
+        return RpcResultBuilder.success(new SnmpWalkStreamOutputBuilder().setWalkId(walkId).build()).buildFuture();
+    }
 
-        Runnable nonBlockingPopulateRunnable = () -> {
-            MibTable<IfEntryBuilder> ifEntryBuilderMibTable = new MibTable<>(snmp, getInterfacesInput.getIpAddress(),
-                    getInterfacesInput.getCommunity(), IfEntryBuilder.class);
+    @Override
+    public ListenableFuture<RpcResult<SnmpSetOutput>> snmpSet(SnmpSetInput input) {
+        return new AsyncSetHandler(input, session).getRpcResponse();
+    }
 
-            GetInterfacesOutputBuilder getInterfacesOutputBuilder = new GetInterfacesOutputBuilder();
+    @Override
+    public ListenableFuture<RpcResult<AddPollJobOutput>> addPollJob(AddPollJobInput input) {
+        if (input.getIntervalSeconds() == null) {
+            return RpcResultBuilder.<AddPollJobOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, "No interval given").buildFuture();
+        }
+        PollJob job;
+        try {
+            // An invalid OID fails the RPC like any other invalid input
+            List<OID> oids = new ArrayList<>();
+            if (input.getOids() != null) {
+                for (String oid : input.getOids()) {
+                    oids.add(new OID(oid));
+                }
+            }
+            job = poller.addJob(input.getIpAddress(), input.getCommunity(), input, oids,
+                    TimeUnit.SECONDS.toMillis(input.getIntervalSeconds()));
+        } catch (IllegalArgumentException e) {
+            return RpcResultBuilder.<AddPollJobOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, e.getMessage(), e).buildFuture();
+        }
+        return RpcResultBuilder.success(new AddPollJobOutputBuilder().setJobId(BigInteger.valueOf(job.getId())).build())
+                .buildFuture();
+    }
 
-            Map<Integer, IfEntryBuilder> ifEntryBuilders = ifEntryBuilderMibTable.populate();
+    @Override
+    public ListenableFuture<RpcResult<RemovePollJobOutput>> removePollJob(RemovePollJobInput input) {
+        if (input.getJobId() == null || !poller.removeJob(input.getJobId().longValue())) {
+            return RpcResultBuilder.<RemovePollJobOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, "No poll job " + input.getJobId()).buildFuture();
+        }
+        return RpcResultBuilder.success(new RemovePollJobOutputBuilder().build()).buildFuture();
+    }
 
-            List<IfEntry> ifEntries = new ArrayList<>(ifEntryBuilders.size());
-            for (IfEntryBuilder ifEntryBuilder: ifEntryBuilders.values()) {
-                ifEntries.add(ifEntryBuilder.build());
+    @Override
+    public ListenableFuture<RpcResult<GetStatisticsOutput>> getStatistics() {
+        RequestPacer pacer = session.getRequestPacer();
+        DeviceHealthRegistry deviceHealth = session.getDeviceHealth();
+        GetStatisticsOutputBuilder statistics = new GetStatisticsOutputBuilder()
+                .setRequestExecutor(new RequestExecutorBuilder()
+                        .setPending((long) executor.getPendingCount())
+                        .setQueueDepth((long) executor.getQueueDepth())
+                        .setRejected(BigInteger.valueOf(executor.getRejectedCount()))
+                        .setCompleted(BigInteger.valueOf(executor.getCompletedCount()))
+                        .build())
+                .setAgentPacing(new AgentPacingBuilder()
+                        .setQueued(BigInteger.valueOf(pacer.getQueuedCount()))
+                        .setQueueWaitMillis(BigInteger.valueOf(pacer.getQueueWaitMillis()))
+                        .setMaxQueueWaitMillis(BigInteger.valueOf(pacer.getMaxQueueWaitMillis()))
+                        .setRejected(BigInteger.valueOf(pacer.getRejectedCount()))
+                        .build())
+                .setDeviceHealth(new DeviceHealthBuilder()
+                        .setDown(BigInteger.valueOf(deviceHealth.getDownCount()))
+                        .setRejected(BigInteger.valueOf(deviceHealth.getRejectedCount()))
+                        .build());
+        BulkSizeTracker bulkSizeTracker = session.getBulkSizeTracker();
+        List<Agents> agents = new ArrayList<>();
+        bulkSizeTracker.getBudgets().forEach((address, maxRepetitions) -> {
+            if (address instanceof IpAddress && ((IpAddress) address).getInetAddress() instanceof Inet4Address) {
+                agents.add(new AgentsBuilder()
+                        .setIpAddress(new Ipv4Address(((IpAddress) address).getInetAddress().getHostAddress()))
+                        .setMaxRepetitions((long) maxRepetitions)
+                        .build());
             }
+        });
+        statistics.setBulkWalks(new BulkWalksBuilder()
+                .setWalks(BigInteger.valueOf(bulkSizeTracker.getWalkCount()))
+                .setRoundTrips(BigInteger.valueOf(bulkSizeTracker.getWalkRoundTrips()))
+                .setAgents(agents)
+                .build());
+        ResultCache resultCache = session.getResultCache();
+        if (resultCache != null) {
+            statistics.setResultCache(new ResultCacheBuilder()
+                    .setHits(BigInteger.valueOf(resultCache.getHitCount()))
+                    .setMisses(BigInteger.valueOf(resultCache.getMissCount()))
+                    .setSize(BigInteger.valueOf(resultCache.size()))
+                    .build());
+        }
+        return RpcResultBuilder.success(statistics.build()).buildFuture();
+    }
 
-            getInterfacesOutputBuilder.setIfEntry(ifEntries)
-                    .setIfNumber(ifEntries.size());
+    @Override
+    public ListenableFuture<RpcResult<GetInterfacesOutput>> getInterfaces(final GetInterfacesInput getInterfacesInput) {
+        // Every column walk would fail on its own, and leave an empty table rather than an error
+        if (session.isDown(getInterfacesInput.getIpAddress(), getInterfacesInput.getCommunity(),
+                getInterfacesInput)) {
+            return deviceDown(getInterfacesInput.getIpAddress());
+        }
+
+        List<ColumnDecoder<IfEntryBuilder>> columns;
+        try {
+            columns = interfaceColumns(getInterfacesInput.getColumns());
+        } catch (IllegalArgumentException e) {
+            return RpcResultBuilder.<GetInterfacesOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, e.getMessage(), e).buildFuture();
+        }
 
-            RpcResultBuilder<GetInterfacesOutput> rpcResultBuilder = RpcResultBuilder.success(
-                    getInterfacesOutputBuilder.build());
+        ListenableFuture<Map<Integer, IfEntryBuilder>> ifEntryBuildersFuture;
+        if (Boolean.TRUE.equals(getInterfacesInput.isIncremental())) {
+            ifEntryBuildersFuture = interfaceSnapshots.read(getInterfacesInput, columns);
+        } else {
+            MibTable<IfEntryBuilder> ifEntryBuilderMibTable = new MibTable<>(session,
+                    getInterfacesInput.getIpAddress(), getInterfacesInput.getCommunity(), getInterfacesInput,
+                    IfEntryBuilder.class, executor);
+            ifEntryBuildersFuture = ifEntryBuilderMibTable.populateAsync(columns, new HashMap<>());
+        }
 
-            settableFuture.set(rpcResultBuilder.build());
-        };
+        ListenableFuture<RpcResult<GetInterfacesOutput>> result = Futures.transform(
+            ifEntryBuildersFuture, ifEntryBuilders -> {
+                List<IfEntry> ifEntries = new ArrayList<>(ifEntryBuilders.size());
+                for (IfEntryBuilder ifEntryBuilder: ifEntryBuilders.values()) {
+                    ifEntries.add(ifEntryBuilder.build());
+                }
 
-        Thread nonBlockingPopulate = new Thread(nonBlockingPopulateRunnable);
-        nonBlockingPopulate.start();
+                GetInterfacesOutputBuilder getInterfacesOutputBuilder = new GetInterfacesOutputBuilder()
+                        .setIfEntry(ifEntries)
+                        .setIfNumber(ifEntries.size());
 
-        return settableFuture;
+                return RpcResultBuilder.success(getInterfacesOutputBuilder.build()).build();
+            }, executor);
+
+        return Futures.catching(result, RejectedExecutionException.class, e -> {
+            LOG.warn("Rejected get-interfaces for {}, {} requests pending", getInterfacesInput.getIpAddress(),
+                    executor.getPendingCount());
+            return RpcResultBuilder.<GetInterfacesOutput>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, "Too many pending SNMP requests", e).build();
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Returns the requested ifEntry columns, always with ifIndex which identifies the entries, or every column if none
+     * is requested.
+     *
+     * @throws IllegalArgumentException if a name is not an ifEntry column
+     */
+    private static List<ColumnDecoder<IfEntryBuilder>> interfaceColumns(List<String> names) {
+        TableDecoder<IfEntryBuilder> decoder = TableDecoder.forBuilder(IfEntryBuilder.class);
+        if (names == null || names.isEmpty()) {
+            return decoder.getColumns();
+        }
+        Set<String> requested = new HashSet<>(names);
+        requested.add(IF_INDEX_COLUMN);
+        return decoder.getColumns(requested);
     }
 
     @Override
     public void close() throws IOException {
+        poller.close();
+        session.close();
+        executor.close();
+        publishExecutor.shutdown();
         if (snmp != null) {
             snmp.close();
             snmp = null;
         }
+        if (dispatcherPool != null) {
+            dispatcherPool.stop();
+            dispatcherPool = null;
+        }
+    }
+
+
+    RequestExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns the session of the RPCs, so that handlers and tables created outside of this class share its
+     * per-agent state and limits.
+     */
+    public SnmpSession getSession() {
+        return session;
+    }
+
+    Poller getPoller() {
+        return poller;
     }
 
+    /**
+     * Returns the deltas and rates of the Counter32 and Counter64 objects polled by poll jobs.
+     */
+    CounterRates getCounterRates() {
+        return counterRates;
+    }
+
+    InterfaceSnapshots getInterfaceSnapshots() {
+        return interfaceSnapshots;
+    }
+
+    /**
+     * Drops the cached targets of an agent, so that the next request to it builds them again.
+     */
+    public void invalidateTargets(Ipv4Address address) {
+        session.getTargetCache().invalidate(address);
+    }
 
     /**
      * Gets Node properties such as image, serial number, platform, vendor.
@@ -179,6 +509,9 @@ public class SNMPImpl implements SnmpService, AutoCloseable {
     public ListenableFuture<RpcResult<GetNodePropertiesOutput>> getNodeProperties(final GetNodePropertiesInput input) {
         LOG.debug("getNodeProperties for ip address: {} and community: {}", input.getIpAddress(),
                 input.getCommunity());
+        if (session.isDown(input.getIpAddress(), input.getCommunity(), input)) {
+            return deviceDown(input.getIpAddress());
+        }
         SettableFuture<RpcResult<GetNodePropertiesOutput>> nodePropertiesSettableFuture = SettableFuture.create();
         try {
             Map<FieldEnum, String> fieldsMap = getNetConfDeviceInfoUsingSnmp(input);
@@ -219,33 +552,50 @@ public class SNMPImpl implements SnmpService, AutoCloseable {
             throws Exception {
         Map<FieldEnum, String> fieldsMap = new HashMap<>();
 
-        SnmpGetInputBuilder snmpGetInputBuilder = new SnmpGetInputBuilder();
+        // Request all properties at once, the handler packs them into as few PDUs as the agent accepts
+        List<String> objectIds = new ArrayList<>();
+        for (FieldEnum field : FieldEnum.values()) {
+            objectIds.add(field.getObjectId());
+        }
+        SnmpGetInputBuilder snmpGetInputBuilder = new SnmpGetInputBuilder(input);
         snmpGetInputBuilder.setCommunity(input.getCommunity());
         snmpGetInputBuilder.setIpAddress(input.getIpAddress());
         snmpGetInputBuilder.setGetType(SnmpGetType.GET);
-        AsyncGetHandler getHandler;
-        Future<RpcResult<SnmpGetOutput>> snmpGetOutput;
+        snmpGetInputBuilder.setOids(objectIds);
+        snmpGetInputBuilder.setBypassCache(input.isBypassCache());
+        Future<RpcResult<SnmpGetOutput>> snmpGetOutput = session.get(snmpGetInputBuilder.build());
 
-        for (FieldEnum field : FieldEnum.values()) {
-            snmpGetInputBuilder.setOid(field.getObjectId());
-            getHandler = new AsyncGetHandler(snmpGetInputBuilder.build(), snmp);
-            snmpGetOutput = getHandler.getRpcResponse();
-
-            try {
-                RpcResult<SnmpGetOutput> output = snmpGetOutput.get();
-                if (output != null && output.isSuccessful()) {
-                    SnmpGetOutput rpcResult = output.getResult();
-                    if (rpcResult != null && !rpcResult.getResults().isEmpty()) {
-                        fieldsMap.put(field, rpcResult.getResults().get(0).getValue());
+        try {
+            RpcResult<SnmpGetOutput> output = snmpGetOutput.get();
+            if (output != null && output.isSuccessful()) {
+                SnmpGetOutput rpcResult = output.getResult();
+                if (rpcResult != null && rpcResult.getResults() != null) {
+                    for (Results result : rpcResult.getResults()) {
+                        FieldEnum field = fieldForOid(new OID(result.getOid()));
+                        if (field != null) {
+                            fieldsMap.put(field, result.getValue());
+                        }
                     }
                 }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("Failed to get the node properties.", e);
+            throw e;
+        }
+        return fieldsMap;
+    }
 
+    private static <T> ListenableFuture<RpcResult<T>> deviceDown(Ipv4Address address) {
+        return RpcResultBuilder.<T>failed()
+                .withError(RpcError.ErrorType.TRANSPORT, "Agent " + address.getValue() + " is down").buildFuture();
+    }
 
-            } catch (InterruptedException | ExecutionException e) {
-                LOG.warn("Failed to get the node properties.", e);
-                throw e;
+    private static FieldEnum fieldForOid(OID oid) {
+        for (FieldEnum field : FieldEnum.values()) {
+            if (oid.equals(new OID(field.getObjectId()))) {
+                return field;
             }
         }
-        return fieldsMap;
+        return null;
     }
 }
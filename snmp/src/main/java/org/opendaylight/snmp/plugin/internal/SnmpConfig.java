@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+/**
+ * Tunables of the SNMP plugin. Populated from the {@code org.opendaylight.snmp} configuration through blueprint;
+ * the defaults here apply when a property is not set.
+ */
+public class SnmpConfig {
+    // sysDescr, sysObjectID, sysName and entPhysicalEntry, for ten minutes
+    private static final String DEFAULT_RESULT_CACHE_TTLS =
+            "1.3.6.1.2.1.1.1=600,1.3.6.1.2.1.1.2=600,1.3.6.1.2.1.1.5=600,1.3.6.1.2.1.47.1.1.1.1=600";
+
+    private int executorMaxThreads = 32;
+    private int executorQueueSize = 1024;
+    private boolean executorVirtualThreads = false;
+    private long executorShutdownTimeout = 5000;
+    private int bulkInitialRepetitions = 25;
+    private int bulkMaxRepetitions = 1000;
+    private int bulkMaxResponseSize = 1472;
+    private int bulkTrackedAgents = 100000;
+    private int multiGetMaxInFlight = 256;
+    private int targetCacheSize = 100000;
+    private int agentMaxInFlight = 8;
+    private int agentRequestsPerSecond = 0;
+    private int agentRequestBurst = 10;
+    private int agentMaxQueued = 1000;
+    private boolean coalesceGets = true;
+    private int resultCacheSize = 0;
+    private String resultCacheTtls = DEFAULT_RESULT_CACHE_TTLS;
+    private int requestRetries = 2;
+    private long rtoInitialMillis = 500;
+    private long rtoMinMillis = 100;
+    private long rtoMaxMillis = 5000;
+    private int deviceDownThreshold = 3;
+    private long deviceProbeIntervalMillis = 10000;
+    private int transportCount = 1;
+    private int socketReceiveBufferSize = 0;
+    private int socketSendBufferSize = 0;
+    private int dispatcherThreads = 4;
+    private boolean nioTransport = false;
+    private long pollTickMillis = 100;
+    private int pollWheelSize = 512;
+    private int pollJitterPercent = 10;
+    private String pollJobs = "";
+    private boolean counterRatesOffHeap = false;
+    private int interfaceSnapshotCacheSize = 1000;
+    private long interfaceSnapshotMaxAgeSeconds = 3600;
+
+    public int getExecutorMaxThreads() {
+        return executorMaxThreads;
+    }
+
+    public void setExecutorMaxThreads(int executorMaxThreads) {
+        this.executorMaxThreads = executorMaxThreads;
+    }
+
+    public int getExecutorQueueSize() {
+        return executorQueueSize;
+    }
+
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    public boolean isExecutorVirtualThreads() {
+        return executorVirtualThreads;
+    }
+
+    public void setExecutorVirtualThreads(boolean executorVirtualThreads) {
+        this.executorVirtualThreads = executorVirtualThreads;
+    }
+
+    public long getExecutorShutdownTimeout() {
+        return executorShutdownTimeout;
+    }
+
+    public void setExecutorShutdownTimeout(long executorShutdownTimeout) {
+        this.executorShutdownTimeout = executorShutdownTimeout;
+    }
+
+    public int getBulkInitialRepetitions() {
+        return bulkInitialRepetitions;
+    }
+
+    public void setBulkInitialRepetitions(int bulkInitialRepetitions) {
+        this.bulkInitialRepetitions = bulkInitialRepetitions;
+    }
+
+    public int getBulkMaxRepetitions() {
+        return bulkMaxRepetitions;
+    }
+
+    public void setBulkMaxRepetitions(int bulkMaxRepetitions) {
+        this.bulkMaxRepetitions = bulkMaxRepetitions;
+    }
+
+    public int getBulkMaxResponseSize() {
+        return bulkMaxResponseSize;
+    }
+
+    public void setBulkMaxResponseSize(int bulkMaxResponseSize) {
+        this.bulkMaxResponseSize = bulkMaxResponseSize;
+    }
+
+    public int getBulkTrackedAgents() {
+        return bulkTrackedAgents;
+    }
+
+    public void setBulkTrackedAgents(int bulkTrackedAgents) {
+        this.bulkTrackedAgents = bulkTrackedAgents;
+    }
+
+    public int getMultiGetMaxInFlight() {
+        return multiGetMaxInFlight;
+    }
+
+    public void setMultiGetMaxInFlight(int multiGetMaxInFlight) {
+        this.multiGetMaxInFlight = multiGetMaxInFlight;
+    }
+
+    public int getTargetCacheSize() {
+        return targetCacheSize;
+    }
+
+    public void setTargetCacheSize(int targetCacheSize) {
+        this.targetCacheSize = targetCacheSize;
+    }
+
+    public int getAgentMaxInFlight() {
+        return agentMaxInFlight;
+    }
+
+    public void setAgentMaxInFlight(int agentMaxInFlight) {
+        this.agentMaxInFlight = agentMaxInFlight;
+    }
+
+    public int getAgentRequestsPerSecond() {
+        return agentRequestsPerSecond;
+    }
+
+    public void setAgentRequestsPerSecond(int agentRequestsPerSecond) {
+        this.agentRequestsPerSecond = agentRequestsPerSecond;
+    }
+
+    public int getAgentRequestBurst() {
+        return agentRequestBurst;
+    }
+
+    public void setAgentRequestBurst(int agentRequestBurst) {
+        this.agentRequestBurst = agentRequestBurst;
+    }
+
+    public int getAgentMaxQueued() {
+        return agentMaxQueued;
+    }
+
+    public void setAgentMaxQueued(int agentMaxQueued) {
+        this.agentMaxQueued = agentMaxQueued;
+    }
+
+    public boolean isCoalesceGets() {
+        return coalesceGets;
+    }
+
+    public void setCoalesceGets(boolean coalesceGets) {
+        this.coalesceGets = coalesceGets;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    public void setResultCacheSize(int resultCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+    }
+
+    public String getResultCacheTtls() {
+        return resultCacheTtls;
+    }
+
+    public void setResultCacheTtls(String resultCacheTtls) {
+        this.resultCacheTtls = resultCacheTtls;
+    }
+
+    public int getRequestRetries() {
+        return requestRetries;
+    }
+
+    public void setRequestRetries(int requestRetries) {
+        this.requestRetries = requestRetries;
+    }
+
+    public long getRtoInitialMillis() {
+        return rtoInitialMillis;
+    }
+
+    public void setRtoInitialMillis(long rtoInitialMillis) {
+        this.rtoInitialMillis = rtoInitialMillis;
+    }
+
+    public long getRtoMinMillis() {
+        return rtoMinMillis;
+    }
+
+    public void setRtoMinMillis(long rtoMinMillis) {
+        this.rtoMinMillis = rtoMinMillis;
+    }
+
+    public long getRtoMaxMillis() {
+        return rtoMaxMillis;
+    }
+
+    public void setRtoMaxMillis(long rtoMaxMillis) {
+        this.rtoMaxMillis = rtoMaxMillis;
+    }
+
+    public int getDeviceDownThreshold() {
+        return deviceDownThreshold;
+    }
+
+    public void setDeviceDownThreshold(int deviceDownThreshold) {
+        this.deviceDownThreshold = deviceDownThreshold;
+    }
+
+    public long getDeviceProbeIntervalMillis() {
+        return deviceProbeIntervalMillis;
+    }
+
+    public void setDeviceProbeIntervalMillis(long deviceProbeIntervalMillis) {
+        this.deviceProbeIntervalMillis = deviceProbeIntervalMillis;
+    }
+
+    public int getTransportCount() {
+        return transportCount;
+    }
+
+    public void setTransportCount(int transportCount) {
+        this.transportCount = transportCount;
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+    }
+
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    public void setSocketSendBufferSize(int socketSendBufferSize) {
+        this.socketSendBufferSize = socketSendBufferSize;
+    }
+
+    public int getDispatcherThreads() {
+        return dispatcherThreads;
+    }
+
+    public void setDispatcherThreads(int dispatcherThreads) {
+        this.dispatcherThreads = dispatcherThreads;
+    }
+
+    public boolean isNioTransport() {
+        return nioTransport;
+    }
+
+    public void setNioTransport(boolean nioTransport) {
+        this.nioTransport = nioTransport;
+    }
+
+    public long getPollTickMillis() {
+        return pollTickMillis;
+    }
+
+    public void setPollTickMillis(long pollTickMillis) {
+        this.pollTickMillis = pollTickMillis;
+    }
+
+    public int getPollWheelSize() {
+        return pollWheelSize;
+    }
+
+    public void setPollWheelSize(int pollWheelSize) {
+        this.pollWheelSize = pollWheelSize;
+    }
+
+    public int getPollJitterPercent() {
+        return pollJitterPercent;
+    }
+
+    public void setPollJitterPercent(int pollJitterPercent) {
+        this.pollJitterPercent = pollJitterPercent;
+    }
+
+    public String getPollJobs() {
+        return pollJobs;
+    }
+
+    public void setPollJobs(String pollJobs) {
+        this.pollJobs = pollJobs;
+    }
+
+    public boolean isCounterRatesOffHeap() {
+        return counterRatesOffHeap;
+    }
+
+    public void setCounterRatesOffHeap(boolean counterRatesOffHeap) {
+        this.counterRatesOffHeap = counterRatesOffHeap;
+    }
+
+    public int getInterfaceSnapshotCacheSize() {
+        return interfaceSnapshotCacheSize;
+    }
+
+    public void setInterfaceSnapshotCacheSize(int interfaceSnapshotCacheSize) {
+        this.interfaceSnapshotCacheSize = interfaceSnapshotCacheSize;
+    }
+
+    public long getInterfaceSnapshotMaxAgeSeconds() {
+        return interfaceSnapshotMaxAgeSeconds;
+    }
+
+    public void setInterfaceSnapshotMaxAgeSeconds(long interfaceSnapshotMaxAgeSeconds) {
+        this.interfaceSnapshotMaxAgeSeconds = interfaceSnapshotMaxAgeSeconds;
+    }
+}
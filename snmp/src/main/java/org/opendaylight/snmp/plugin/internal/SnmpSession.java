@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpGetOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.UsmCredentials;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.ScopedPDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OID;
+
+/**
+ * The {@link Snmp} session together with the state kept per agent across requests, such as GETBULK sizes,
+ * retransmission timeouts and in-flight limits. All handlers sending to the same agents should share one instance:
+ * {@link SNMPImpl} shares its own, see {@link SNMPImpl#getSession()}, between all the handlers it creates.
+ */
+public final class SnmpSession {
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpSession.class);
+
+    private final Snmp snmp;
+    private final SnmpTransports transports;
+    private final BulkSizeTracker bulkSizeTracker;
+    private final TargetCache targetCache;
+    private final UsmUsers usmUsers;
+    private final AgentTimeouts agentTimeouts;
+    private final DeviceHealthRegistry deviceHealth;
+    private final RequestPacer requestPacer;
+    private final GetCoalescer getCoalescer;
+    private final ResultCache resultCache;
+
+    public SnmpSession(Snmp snmp) {
+        this(snmp, new SnmpConfig());
+    }
+
+    public SnmpSession(Snmp snmp, SnmpConfig config) {
+        this.snmp = snmp;
+        this.transports = new SnmpTransports(snmp);
+        this.bulkSizeTracker = new BulkSizeTracker(config);
+        this.targetCache = new TargetCache(config);
+        this.usmUsers = new UsmUsers(snmp);
+        this.agentTimeouts = new AgentTimeouts(config);
+        this.deviceHealth = new DeviceHealthRegistry(transports, config);
+        this.requestPacer = new RequestPacer(config, agentTimeouts, deviceHealth);
+        this.getCoalescer = config.isCoalesceGets() ? new GetCoalescer() : null;
+        this.resultCache = config.getResultCacheSize() > 0 ? new ResultCache(config) : null;
+    }
+
+    Snmp getSnmp() {
+        return snmp;
+    }
+
+    SnmpTransports getTransports() {
+        return transports;
+    }
+
+    BulkSizeTracker getBulkSizeTracker() {
+        return bulkSizeTracker;
+    }
+
+    TargetCache getTargetCache() {
+        return targetCache;
+    }
+
+    AgentTimeouts getAgentTimeouts() {
+        return agentTimeouts;
+    }
+
+    DeviceHealthRegistry getDeviceHealth() {
+        return deviceHealth;
+    }
+
+    RequestPacer getRequestPacer() {
+        return requestPacer;
+    }
+
+    GetCoalescer getGetCoalescer() {
+        return getCoalescer;
+    }
+
+    ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Runs a get, answering what it can from the result cache, or joins an identical one which is still pending.
+     */
+    ListenableFuture<RpcResult<SnmpGetOutput>> get(SnmpGetInput input) {
+        if (resultCache != null && resultCache.isCacheable(input)) {
+            return resultCache.get(input, this::request);
+        }
+        return request(input);
+    }
+
+    private ListenableFuture<RpcResult<SnmpGetOutput>> request(SnmpGetInput input) {
+        if (getCoalescer == null) {
+            return new AsyncGetHandler(input, this).getRpcResponse();
+        }
+        return getCoalescer.get(input, getInput -> new AsyncGetHandler(getInput, this).getRpcResponse());
+    }
+
+    /**
+     * Drops the cached results a successful set of the object on the agent may have changed.
+     */
+    void onSet(Ipv4Address address, OID oid) {
+        if (resultCache != null && address != null) {
+            resultCache.invalidate(address.getValue(), oid);
+        }
+    }
+
+    /**
+     * Sends a request within the agent's in-flight and rate limits, possibly after waiting for them, with the
+     * agent's current retransmission timeout. The listener is called exactly once; if a queued request cannot be
+     * sent, or the engine of an SNMPv3 agent cannot be discovered, with an event carrying the error and no response.
+     *
+     * @throws IOException if the request cannot be sent or queued, a
+     *         {@link DeviceHealthRegistry.DeviceDownException} if the agent is down
+     */
+    void send(PDU pdu, Target target, ResponseListener listener) throws IOException {
+        Address address = target.getAddress();
+        if (address != null) {
+            deviceHealth.checkReachable(address);
+        }
+        // The target is shared by all requests to the agent, so each request gets a copy to set its timeout on
+        Target copy = (Target) target.clone();
+        ListenableFuture<Void> registered = usmUsers.whenRegistered(target);
+        if (registered == null) {
+            requestPacer.send(transports, pdu, copy, listener);
+            return;
+        }
+
+        // The SNMPv3 user is added once the agent's engine is discovered, the request waits for it without a thread
+        Futures.addCallback(registered, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                try {
+                    requestPacer.send(transports, pdu, copy, listener);
+                } catch (IOException e) {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                LOG.debug("Failed to send request to {}", address, cause);
+                if (cause instanceof UsmUsers.EngineDiscoveryException) {
+                    deviceHealth.onTimeout(target);
+                }
+                Exception error = cause instanceof Exception ? (Exception) cause : new IOException(cause);
+                listener.onResponse(new ResponseEvent(snmp, null, pdu, null, null, error));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Returns the cached target of an agent, or null if the address cannot be used.
+     *
+     * @param community the community, or null for {@link SNMPImpl#DEFAULT_COMMUNITY}
+     */
+    Target getTarget(Ipv4Address address, String community) {
+        return getTarget(address, community, null);
+    }
+
+    /**
+     * Returns the cached target of an agent, or null if the address or the credentials cannot be used. Credentials
+     * with a security name select SNMPv3, and their user is added to the USM user table for the agent's engine if
+     * needed, once the engine is known; otherwise the community is used with SNMPv2c. Never blocks, the engine of an
+     * agent not seen before is discovered when the first request is sent to it.
+     *
+     * @param community the community, or null for {@link SNMPImpl#DEFAULT_COMMUNITY}
+     * @param credentials the SNMPv3 credentials, may be null
+     */
+    Target getTarget(Ipv4Address address, String community, UsmCredentials credentials) {
+        Target target = cachedTarget(address, community, credentials);
+        if (target != null && UsmUsers.isV3(credentials) && !usmUsers.register(credentials, target)) {
+            return null;
+        }
+        return target;
+    }
+
+    private Target cachedTarget(Ipv4Address address, String community, UsmCredentials credentials) {
+        if (UsmUsers.isV3(credentials)) {
+            return targetCache.getUserTarget(address, credentials.getSecurityName(),
+                    UsmUsers.securityLevel(credentials));
+        }
+        return targetCache.getTarget(address, community != null ? community : SNMPImpl.DEFAULT_COMMUNITY);
+    }
+
+    /**
+     * Creates an empty PDU of the kind the target's SNMP version uses.
+     */
+    static PDU createPdu(Target target) {
+        return target != null && target.getVersion() == SnmpConstants.version3 ? new ScopedPDU() : new PDU();
+    }
+
+    /**
+     * Checks whether the agent is down. Requests to it would fail at once.
+     */
+    boolean isDown(Ipv4Address address, String community, UsmCredentials credentials) {
+        Target target = cachedTarget(address, community, credentials);
+        return target != null && deviceHealth.isDown(target.getAddress());
+    }
+
+    /**
+     * Stops the background work of the session. The {@link Snmp} session itself is left open.
+     */
+    public void close() {
+        deviceHealth.close();
+        usmUsers.close();
+    }
+}
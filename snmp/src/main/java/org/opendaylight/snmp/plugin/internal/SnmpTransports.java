@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import java.io.IOException;
+import java.util.Collection;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.Address;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.WorkerPool;
+
+/**
+ * Sends the requests of a {@link Snmp} session over its transport mappings. If the session has several, requests
+ * are spread across them by agent address, so that the receive load is shared by several sockets and listen threads
+ * while each agent always talks to the same socket.
+ */
+final class SnmpTransports {
+    private final Snmp snmp;
+    private final TransportMapping<?>[] mappings;
+
+    SnmpTransports(Snmp snmp) {
+        this.snmp = snmp;
+        MessageDispatcher dispatcher = snmp != null ? snmp.getMessageDispatcher() : null;
+        @SuppressWarnings("unchecked")
+        Collection<TransportMapping<?>> sessionMappings = dispatcher != null
+                ? (Collection<TransportMapping<?>>) (Collection<?>) dispatcher.getTransportMappings() : null;
+        mappings = sessionMappings != null && sessionMappings.size() > 1
+                ? sessionMappings.toArray(new TransportMapping<?>[0]) : new TransportMapping<?>[0];
+    }
+
+    /**
+     * Creates a UDP transport mapping on an ephemeral port with the socket buffer sizes of the configuration, a
+     * {@link NioUdpTransportMapping} if the configuration asks for it.
+     *
+     * @param workerPool the pool the NIO transport processes received messages on, may be null
+     */
+    static TransportMapping<?> createUdpTransport(SnmpConfig config, WorkerPool workerPool) throws IOException {
+        if (config.isNioTransport()) {
+            return new NioUdpTransportMapping(config, workerPool);
+        }
+        BufferedUdpTransportMapping transport = new BufferedUdpTransportMapping(config.getSocketSendBufferSize());
+        if (config.getSocketReceiveBufferSize() > 0) {
+            transport.setReceiveBufferSize(config.getSocketReceiveBufferSize());
+        }
+        return transport;
+    }
+
+    Snmp getSnmp() {
+        return snmp;
+    }
+
+    /**
+     * Returns the number of transport mappings requests are spread across, 0 if the session's default is used.
+     */
+    int size() {
+        return mappings.length;
+    }
+
+    /**
+     * Returns the transport mapping requests to the agent are sent with, or null for the session's default.
+     */
+    TransportMapping<?> select(Address address) {
+        if (mappings.length == 0 || address == null) {
+            return null;
+        }
+        return mappings[Math.floorMod(address.hashCode(), mappings.length)];
+    }
+
+    void send(PDU pdu, Target target, ResponseListener listener) throws IOException {
+        TransportMapping<?> transport = select(target.getAddress());
+        if (transport == null && pdu.getType() == PDU.SET) {
+            snmp.set(pdu, target, null, listener);
+        } else if (transport == null) {
+            snmp.send(pdu, target, null, listener);
+        } else {
+            snmp.send(pdu, target, transport, null, listener);
+        }
+    }
+
+    /**
+     * A UDP transport mapping which also sizes the send buffer of its socket, which
+     * {@link DefaultUdpTransportMapping} leaves at the system default.
+     */
+    private static final class BufferedUdpTransportMapping extends DefaultUdpTransportMapping {
+        private final int sendBufferSize;
+
+        BufferedUdpTransportMapping(int sendBufferSize) throws IOException {
+            this.sendBufferSize = sendBufferSize;
+        }
+
+        @Override
+        public synchronized void listen() throws IOException {
+            super.listen();
+            // The socket may have been recreated if the transport was closed before
+            if (sendBufferSize > 0 && socket != null) {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.collect.ImmutableList;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.opendaylight.snmp.OID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The column decoders and the builder constructor of a generated table entry builder. Instances are computed once
+ * per builder class and cached, so repeated {@link MibTable} reads do not touch reflection.
+ */
+final class TableDecoder<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(TableDecoder.class);
+
+    private static final ClassValue<TableDecoder<?>> CACHE = new ClassValue<TableDecoder<?>>() {
+        @Override
+        protected TableDecoder<?> computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+
+    private final MethodHandle constructor;
+    private final List<ColumnDecoder<T>> columns;
+
+    private TableDecoder(MethodHandle constructor, List<ColumnDecoder<T>> columns) {
+        this.constructor = constructor;
+        this.columns = columns;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> TableDecoder<T> forBuilder(Class<T> builderClass) {
+        return (TableDecoder<T>) CACHE.get(builderClass);
+    }
+
+    List<ColumnDecoder<T>> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the columns with the given names, in table order. The name of a column is the name of its setter
+     * without "set", such as ifOperStatus.
+     *
+     * @throws IllegalArgumentException if a name is not a column of the table
+     */
+    List<ColumnDecoder<T>> getColumns(Collection<String> names) {
+        Set<String> unknown = new HashSet<>(names);
+        ImmutableList.Builder<ColumnDecoder<T>> selected = ImmutableList.builder();
+        for (ColumnDecoder<T> column : columns) {
+            if (unknown.remove(column.getName())) {
+                selected.add(column);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("Unknown columns " + unknown);
+        }
+        return selected.build();
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    T newBuilder() {
+        try {
+            @SuppressWarnings("unchecked")
+            T builder = (T) (Object) constructor.invokeExact();
+            return builder;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to instantiate builder", e);
+        }
+    }
+
+    private static <T> TableDecoder<T> create(Class<T> builderClass) {
+        final MethodHandle constructor;
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(builderClass,
+                    MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("No public no-arg constructor in " + builderClass, e);
+        }
+
+        ImmutableList.Builder<ColumnDecoder<T>> columns = ImmutableList.builder();
+        for (Method method : builderClass.getMethods()) {
+            OID oid = method.getAnnotation(OID.class);
+            if (oid == null || !method.getName().startsWith("set") || method.getParameterCount() != 1) {
+                continue;
+            }
+
+            try {
+                ColumnDecoder<T> column = ColumnDecoder.forSetter(method, oid.value());
+                if (column != null) {
+                    columns.add(column);
+                }
+            } catch (IllegalAccessException e) {
+                LOG.warn("Cannot access {} on {}", method.getName(), builderClass, e);
+            }
+        }
+        return new TableDecoder<>(constructor, columns.build());
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+/**
+ * The structure of the INDEX of a table, such as INTEGER, IpAddress for ipNetToMediaTable's
+ * {@code ipNetToMediaIfIndex, ipNetToMediaNetAddress}. It decodes the index arcs of an object's OID into a
+ * {@link Key} directly from the arcs, without converting the OID to a string.
+ */
+public final class TableIndex {
+
+    /**
+     * The encodings of index objects in OIDs, see RFC 2578 section 7.7.
+     */
+    public enum Component {
+        /** An INTEGER, Unsigned32 or TimeTicks: one arc. */
+        INTEGER,
+        /** An IpAddress: four arcs of 0 to 255. */
+        IP_ADDRESS,
+        /** An OCTET STRING: its length, then one arc of 0 to 255 per octet. */
+        STRING,
+        /** An IMPLIED OCTET STRING, the last component only: one arc per octet, up to the end of the OID. */
+        IMPLIED_STRING,
+        /** An OBJECT IDENTIFIER: its number of arcs, then its arcs. */
+        OBJECT_IDENTIFIER
+    }
+
+    private final Component[] components;
+
+    private TableIndex(Component[] components) {
+        this.components = components;
+    }
+
+    /**
+     * Creates the index structure made of the given components, in INDEX clause order.
+     *
+     * @throws IllegalArgumentException if there is no component, or IMPLIED_STRING is not the last one
+     */
+    public static TableIndex of(Component... components) {
+        Preconditions.checkArgument(components.length > 0, "An index needs a component");
+        for (int i = 0; i < components.length - 1; i++) {
+            Preconditions.checkArgument(components[i] != Component.IMPLIED_STRING,
+                    "Only the last component can be IMPLIED");
+        }
+        return new TableIndex(components.clone());
+    }
+
+    /**
+     * Decodes the index which follows the arcs of the column in the arcs of an object's OID.
+     *
+     * @param offset the number of arcs of the column
+     * @return the key, or null if the arcs do not match the structure of the index
+     */
+    public Key decode(int[] arcs, int offset) {
+        if (end(arcs, offset, components.length) != arcs.length) {
+            return null;
+        }
+        return new Key(this, Arrays.copyOfRange(arcs, offset, arcs.length));
+    }
+
+    /**
+     * Decodes the index which follows the column in an object's OID.
+     *
+     * @return the key, or null if the OID is not an object of the column with this index structure
+     */
+    public Key decode(OID oid, OID column) {
+        return oid.startsWith(column) ? decode(oid.getValue(), column.size()) : null;
+    }
+
+    /**
+     * Returns the position following the first count components starting at the given position, or -1 if the arcs
+     * end before them or do not match them.
+     */
+    private int end(int[] arcs, int position, int count) {
+        int pos = position;
+        for (int i = 0; i < count && pos >= 0; i++) {
+            pos = next(components[i], arcs, pos);
+        }
+        return pos;
+    }
+
+    private static int next(Component component, int[] arcs, int pos) {
+        switch (component) {
+            case INTEGER:
+                return pos < arcs.length ? pos + 1 : -1;
+            case IP_ADDRESS:
+                return pos + 4 <= arcs.length && octets(arcs, pos, pos + 4) ? pos + 4 : -1;
+            case STRING:
+                if (pos >= arcs.length || arcs[pos] < 0 || arcs[pos] > arcs.length - pos - 1) {
+                    return -1;
+                }
+                return octets(arcs, pos + 1, pos + 1 + arcs[pos]) ? pos + 1 + arcs[pos] : -1;
+            case IMPLIED_STRING:
+                return octets(arcs, pos, arcs.length) ? arcs.length : -1;
+            case OBJECT_IDENTIFIER:
+                if (pos >= arcs.length || arcs[pos] < 0 || arcs[pos] > arcs.length - pos - 1) {
+                    return -1;
+                }
+                return pos + 1 + arcs[pos];
+            default:
+                throw new IllegalStateException("Unhandled component " + component);
+        }
+    }
+
+    private static boolean octets(int[] arcs, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (arcs[i] < 0 || arcs[i] > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The index of a row: the index arcs of its objects, with their hash code computed once. Components are decoded
+     * from the arcs when asked for.
+     */
+    public static final class Key {
+        private final TableIndex index;
+        private final int[] arcs;
+        private final int hashCode;
+
+        Key(TableIndex index, int[] arcs) {
+            this.index = index;
+            this.arcs = arcs;
+            this.hashCode = Arrays.hashCode(arcs);
+        }
+
+        /**
+         * Returns the i-th component, which must be an INTEGER. Unsigned32 and TimeTicks values of 2^31 and above come
+         * out negative, see {@link #getUnsigned(int)}.
+         */
+        public int getInt(int component) {
+            checkComponent(component, Component.INTEGER);
+            return arcs[start(component)];
+        }
+
+        /**
+         * Returns the i-th component, which must be an INTEGER, as an unsigned value such as an Unsigned32 or
+         * TimeTicks.
+         */
+        public long getUnsigned(int component) {
+            checkComponent(component, Component.INTEGER);
+            return arcs[start(component)] & 0xFFFFFFFFL;
+        }
+
+        /**
+         * Returns the i-th component, which must be an IP_ADDRESS, in dotted quad notation.
+         */
+        public String getIpAddress(int component) {
+            checkComponent(component, Component.IP_ADDRESS);
+            int start = start(component);
+            return arcs[start] + "." + arcs[start + 1] + "." + arcs[start + 2] + "." + arcs[start + 3];
+        }
+
+        /**
+         * Returns the i-th component, which must be a STRING or IMPLIED_STRING.
+         */
+        public OctetString getString(int component) {
+            Preconditions.checkElementIndex(component, index.components.length);
+            Component type = index.components[component];
+            Preconditions.checkArgument(type == Component.STRING || type == Component.IMPLIED_STRING,
+                    "Component %s is %s", component, type);
+            int start = start(component);
+            int from = type == Component.STRING ? start + 1 : start;
+            int to = type == Component.STRING ? from + arcs[start] : arcs.length;
+            byte[] octets = new byte[to - from];
+            for (int i = from; i < to; i++) {
+                octets[i - from] = (byte) arcs[i];
+            }
+            return new OctetString(octets);
+        }
+
+        /**
+         * Returns the i-th component, which must be an OBJECT_IDENTIFIER.
+         */
+        public OID getOid(int component) {
+            checkComponent(component, Component.OBJECT_IDENTIFIER);
+            int start = start(component);
+            return new OID(arcs, start + 1, arcs[start]);
+        }
+
+        /**
+         * Returns the index as OID suffix, as appended to a column to name the object of the row.
+         */
+        public OID toOid() {
+            return new OID(arcs);
+        }
+
+        private void checkComponent(int component, Component type) {
+            Preconditions.checkElementIndex(component, index.components.length);
+            Preconditions.checkArgument(index.components[component] == type, "Component %s is %s", component,
+                    index.components[component]);
+        }
+
+        private int start(int component) {
+            return index.end(arcs, 0, component);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && Arrays.equals(arcs, other.arcs);
+        }
+
+        @Override
+        public String toString() {
+            return toOid().toString();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Walks several table columns at once. Every request is a single GETBULK carrying the current position of each
+ * column that has not ended yet, so the columns advance together and a column drops out of the PDU as soon as the
+ * agent answers with an object outside of it. If a single row of the columns is too big for the agent, they are walked
+ * a few at a time instead. An error status fails every column which has not ended, rather than cutting them short.
+ */
+public class TableWalker implements ResponseListener {
+    private static final Logger LOG = LoggerFactory.getLogger(TableWalker.class);
+
+    private final SnmpSession session;
+    private final Target target;
+    private final BulkSizeTracker bulkSizeTracker;
+    private final Column[] columns;
+    private final PDU pdu;
+    private final long rowLimit;
+    // Lowered when a single row of all the active columns is too big for the agent
+    private int maxColumns = Integer.MAX_VALUE;
+    private Column[] requested;
+    private int activeCount;
+    private int roundTrips;
+
+    public TableWalker(SnmpSession session, Target target, List<OID> columnOids) {
+        this(session, target, columnOids, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a walker which only walks the rows whose first index arc lies between the given indexes, both
+     * included. Each column starts right before its first row rather than at its start, and ends at the first object
+     * beyond its last row. Expecting one row per index, no request asks for more rows than remain in the range.
+     */
+    TableWalker(SnmpSession session, Target target, List<OID> columnOids, int firstIndex, int lastIndex) {
+        Preconditions.checkArgument(firstIndex >= 0 && firstIndex <= lastIndex, "Invalid index range %s..%s",
+                firstIndex, lastIndex);
+        this.session = session;
+        this.target = target;
+        this.pdu = SnmpSession.createPdu(target);
+        this.bulkSizeTracker = session.getBulkSizeTracker();
+        this.columns = new Column[columnOids.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(columnOids.get(i), firstIndex, lastIndex);
+        }
+        rowLimit = (long) lastIndex - firstIndex + 1;
+        activeCount = columns.length;
+        pdu.setType(PDU.GETBULK);
+        pdu.setNonRepeaters(0);
+    }
+
+    /**
+     * Returns the future of the bindings of the i-th column passed to the constructor. It completes once that column
+     * has ended, which may be before the other columns.
+     */
+    public ListenableFuture<List<VariableBinding>> getColumnResponse(int index) {
+        return columns[index].future;
+    }
+
+    /**
+     * Sends the first request. Must be called once, after the column futures of interest have been obtained.
+     */
+    public void start() {
+        if (activeCount == 0) {
+            return;
+        }
+        if (target == null) {
+            failActive(new IOException("No target for table walk"));
+            return;
+        }
+        sendRequest();
+    }
+
+    @Override
+    public void onResponse(ResponseEvent responseEvent) {
+        // acknowledge receipt of the event
+        ((Snmp) responseEvent.getSource()).cancel(responseEvent.getRequest(), this);
+
+        PDU response = responseEvent.getResponse();
+        if (response == null && responseEvent.getError() != null) {
+            failActive(new IOException("Request failed", responseEvent.getError()));
+            return;
+        }
+        if (shouldRetrySmaller(response)) {
+            sendRequest();
+            return;
+        }
+        if (response == null) {
+            failActive(new TimeoutException("Stopped due to timeout; results will be incomplete. Request: "
+                    + responseEvent.getRequest()));
+            return;
+        }
+        if (response.getErrorStatus() != PDU.noError) {
+            // The columns cannot be read any further, so none of them may look complete
+            failActive(new IOException("Table walk of " + target.getAddress() + " failed with error "
+                    + response.getErrorStatusText()));
+            return;
+        }
+
+        bulkSizeTracker.onResponse(target, response);
+
+        // Response bindings are laid out row by row, each row holding one binding per requested column
+        boolean progress = false;
+        int size = response.size();
+        for (int i = 0; i < size; i++) {
+            Column column = requested[i % requested.length];
+            if (!column.done && column.accept(response.get(i))) {
+                progress = true;
+            }
+        }
+
+        if (!progress) {
+            // Nothing more to read in the requested columns; columns not requested yet go on
+            for (Column column : requested) {
+                column.done = true;
+            }
+        }
+        for (Column column : requested) {
+            if (column.done) {
+                column.complete();
+                activeCount--;
+            }
+        }
+        if (activeCount > 0) {
+            sendRequest();
+        } else {
+            recordCompletion();
+        }
+    }
+
+    private void sendRequest() {
+        requested = activeColumns(Math.min(activeCount, maxColumns));
+        pdu.clear();
+        for (Column column : requested) {
+            pdu.add(new VariableBinding(column.cursor));
+        }
+        pdu.setMaxRepetitions((int) Math.min(bulkSizeTracker.getMaxRepetitions(target, requested.length),
+                Math.max(1, rowLimit - fewestRows(requested))));
+        pdu.setRequestID(new Integer32(0));
+
+        roundTrips++;
+        try {
+            session.send(pdu, target, this);
+        } catch (IOException e) {
+            LOG.debug("Error sending table walk request to {}", target, e);
+            failActive(e);
+        }
+    }
+
+    /**
+     * Checks whether the last request should be repeated smaller after a tooBig error: with fewer repetitions, or
+     * once a single row is too big, with fewer columns. A timeout is not retried, the request already went through
+     * all of its retransmissions. A single object which does not fit is not retried, and fails the walk.
+     */
+    private boolean shouldRetrySmaller(PDU response) {
+        if (response == null || response.getErrorStatus() != PDU.tooBig) {
+            return false;
+        }
+        if (pdu.getMaxRepetitions() > 1) {
+            bulkSizeTracker.shrink(target, pdu.size() * pdu.getMaxRepetitions());
+            return true;
+        }
+        if (requested.length > 1) {
+            maxColumns = Math.max(1, requested.length / 2);
+            LOG.debug("A row of {} columns is too big for {}, requesting {} columns at a time", requested.length,
+                    target.getAddress(), maxColumns);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of requests sent so far, including retries with fewer repetitions.
+     */
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Returns the max-repetitions of the last request sent.
+     */
+    public int getMaxRepetitions() {
+        return pdu.getMaxRepetitions();
+    }
+
+    /**
+     * Returns the number of rows received by the column which received the fewest.
+     */
+    private static int fewestRows(Column[] requested) {
+        int fewest = Integer.MAX_VALUE;
+        for (Column column : requested) {
+            fewest = Math.min(fewest, column.bindings.size());
+        }
+        return fewest == Integer.MAX_VALUE ? 0 : fewest;
+    }
+
+    /**
+     * Returns the first active columns, at most the given number of them.
+     */
+    private Column[] activeColumns(int limit) {
+        Column[] active = new Column[limit];
+        int count = 0;
+        for (int i = 0; i < columns.length && count < limit; i++) {
+            if (!columns[i].done) {
+                active[count++] = columns[i];
+            }
+        }
+        return active;
+    }
+
+    private void recordCompletion() {
+        bulkSizeTracker.onWalkComplete(roundTrips);
+        LOG.debug("Table walk of {} columns on {} took {} round-trips, last max-repetitions {}", columns.length,
+                target.getAddress(), roundTrips, pdu.getMaxRepetitions());
+    }
+
+    private void failActive(Throwable failure) {
+        if (roundTrips > 0) {
+            bulkSizeTracker.onWalkComplete(roundTrips);
+        }
+        for (Column column : columns) {
+            if (!column.future.isDone()) {
+                column.done = true;
+                column.future.setException(failure);
+            }
+        }
+        activeCount = 0;
+    }
+
+    private static final class Column {
+        private final OID base;
+        private final SettableFuture<List<VariableBinding>> future = SettableFuture.create();
+        private final List<VariableBinding> bindings = new ArrayList<>();
+        // The first object to store, and the first beyond the column's rows; null if unbounded
+        private final OID start;
+        private final OID end;
+        private OID cursor;
+        private boolean done;
+
+        Column(OID base, int firstIndex, int lastIndex) {
+            this.base = base;
+            // Objects of a compound index starting with firstIndex - 1 are skipped, not stored
+            this.cursor = firstIndex > 0 ? new OID(base).append(firstIndex - 1) : base;
+            this.start = firstIndex > 0 ? new OID(base).append(firstIndex) : null;
+            this.end = lastIndex < Integer.MAX_VALUE ? new OID(base).append(lastIndex + 1) : null;
+        }
+
+        /**
+         * Stores the binding if it is the next object of this column and lies within its rows, otherwise marks the
+         * column as ended.
+         *
+         * @return true if the column advanced
+         */
+        boolean accept(VariableBinding binding) {
+            OID oid = binding.getOid();
+            if (binding.isException() || oid == null || !oid.startsWith(base) || oid.compareTo(cursor) <= 0
+                    || end != null && oid.compareTo(end) >= 0) {
+                done = true;
+                return false;
+            }
+            if (start == null || oid.compareTo(start) >= 0) {
+                bindings.add(binding);
+            }
+            cursor = oid;
+            return true;
+        }
+
+        void complete() {
+            future.set(bindings);
+        }
+    }
+}
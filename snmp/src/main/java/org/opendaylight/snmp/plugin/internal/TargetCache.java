@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.Target;
+import org.snmp4j.mp.SnmpConstants;
+
+/**
+ * Keeps the {@link Target} of every agent recently talked to, so that the address is parsed and the target built
+ * once per agent rather than once per request. Cached targets are shared between concurrent requests and must not
+ * be modified.
+ */
+final class TargetCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TargetCache.class);
+
+    private final Cache<TargetKey, Target> targets;
+    private final int retries;
+
+    TargetCache() {
+        this(new SnmpConfig());
+    }
+
+    TargetCache(SnmpConfig config) {
+        retries = Math.max(0, config.getRequestRetries());
+        targets = CacheBuilder.newBuilder()
+                .maximumSize(config.getTargetCacheSize())
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * Returns the SNMPv2c target for the agent at the given address, or null if the address cannot be used.
+     */
+    Target getTarget(Ipv4Address address, String community) {
+        if (address == null) {
+            return null;
+        }
+        return getTarget(address, new TargetKey(address.getValue(), SNMPImpl.SNMP_LISTEN_PORT, community, null, 0,
+                SnmpConstants.version2c), () -> SNMPImpl.getTargetForIp(address, community));
+    }
+
+    /**
+     * Returns the SNMPv3 target of the given USM user for the agent at the given address, or null if the address
+     * cannot be used.
+     */
+    Target getUserTarget(Ipv4Address address, String securityName, int securityLevel) {
+        if (address == null) {
+            return null;
+        }
+        return getTarget(address, new TargetKey(address.getValue(), SNMPImpl.SNMP_LISTEN_PORT, null, securityName,
+                securityLevel, SnmpConstants.version3),
+                () -> SNMPImpl.getUserTargetForIp(address, securityName, securityLevel));
+    }
+
+    private Target getTarget(Ipv4Address address, TargetKey key, Supplier<Target> factory) {
+        try {
+            return targets.get(key, () -> {
+                Target target = factory.get();
+                if (target == null) {
+                    throw new IllegalArgumentException("Invalid agent address " + address.getValue());
+                }
+                target.setRetries(retries);
+                return target;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            LOG.debug("No target for {}", address.getValue(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Drops the targets of an agent, for instance after its address or credentials changed.
+     */
+    void invalidate(Ipv4Address address) {
+        String ip = address.getValue();
+        targets.asMap().keySet().removeIf(key -> key.ip.equals(ip));
+    }
+
+    void invalidateAll() {
+        targets.invalidateAll();
+    }
+
+    long size() {
+        return targets.size();
+    }
+
+    private static final class TargetKey {
+        private final String ip;
+        private final int port;
+        private final String community;
+        private final String securityName;
+        private final int securityLevel;
+        private final int version;
+        private final int hashCode;
+
+        TargetKey(String ip, int port, String community, String securityName, int securityLevel, int version) {
+            this.ip = ip;
+            this.port = port;
+            this.community = community;
+            this.securityName = securityName;
+            this.securityLevel = securityLevel;
+            this.version = version;
+            this.hashCode = Objects.hash(ip, port, community, securityName, securityLevel, version);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TargetKey)) {
+                return false;
+            }
+            TargetKey other = (TargetKey) obj;
+            return port == other.port && version == other.version && securityLevel == other.securityLevel
+                    && ip.equals(other.ip) && Objects.equals(community, other.community)
+                    && Objects.equals(securityName, other.securityName);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel: tasks are put into the slot of the tick they are due at, modulo the number of slots, and
+ * every tick only runs the due tasks of one slot. Scheduling and expiring are constant time however many tasks are
+ * pending, at the price of running tasks up to one tick late. Tasks run on the thread advancing the wheel and must
+ * not block. The wheel only ticks while tasks are pending, so an idle wheel keeps no executor thread alive.
+ */
+final class TimingWheel {
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Entry>[] slots;
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService executor;
+    // Ticks processed so far, tasks pending, the ticker while any is, and whether the wheel was stopped; guarded by
+    // slots
+    private long tick;
+    private int pending;
+    private ScheduledFuture<?> ticker;
+    private boolean stopped;
+
+    /**
+     * Creates a wheel advanced every tick on the given executor while tasks are pending.
+     *
+     * @param wheelSize the number of slots, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMillis, int wheelSize, ScheduledExecutorService executor) {
+        Preconditions.checkArgument(tickMillis > 0, "Tick must be positive");
+        Preconditions.checkArgument(wheelSize > 0 && wheelSize <= 1 << 30, "Invalid wheel size %s", wheelSize);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.executor = executor;
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        size = Math.max(1, size);
+        this.mask = size - 1;
+        this.slots = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Stops advancing the wheel. Pending tasks are dropped, and tasks scheduled later never run.
+     */
+    void stop() {
+        synchronized (slots) {
+            stopped = true;
+            for (ArrayDeque<Entry> slot : slots) {
+                slot.clear();
+            }
+            pending = 0;
+            stopTicker();
+        }
+    }
+
+    /**
+     * Runs the task once the delay has passed, at the earliest on the next tick.
+     */
+    void schedule(Runnable task, long delay, TimeUnit unit) {
+        long ticks = Math.max(1, (unit.toNanos(delay) + tickNanos - 1) / tickNanos);
+        long now = (System.nanoTime() - startNanos) / tickNanos;
+        synchronized (slots) {
+            if (stopped) {
+                return;
+            }
+            if (ticker == null) {
+                // Nothing is pending, so the ticks which passed while idle need no processing
+                tick = Math.max(tick, now);
+                ticker = executor.scheduleAtFixedRate(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+            }
+            // Counted from the current time rather than from the last tick processed, which may lag behind
+            long due = Math.max(tick, now) + ticks;
+            slots[(int) (due & mask)].add(new Entry(task, due));
+            pending++;
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting in the wheel.
+     */
+    int size() {
+        synchronized (slots) {
+            return pending;
+        }
+    }
+
+    /**
+     * Checks whether the wheel is ticking, which it does while tasks are pending.
+     */
+    boolean isTicking() {
+        synchronized (slots) {
+            return ticker != null;
+        }
+    }
+
+    /**
+     * Processes the ticks which have passed since the last call, catching up if the executor ran late, and runs the
+     * tasks they made due.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    void advance() {
+        List<Runnable> due = new ArrayList<>();
+        synchronized (slots) {
+            long now = (System.nanoTime() - startNanos) / tickNanos;
+            while (tick < now) {
+                tick++;
+                Iterator<Entry> it = slots[(int) (tick & mask)].iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    // Entries of later rounds stay in the slot
+                    if (entry.due <= tick) {
+                        it.remove();
+                        pending--;
+                        due.add(entry.task);
+                    }
+                }
+            }
+        }
+        for (Runnable task : due) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Timing wheel task {} failed", task, e);
+            }
+        }
+        synchronized (slots) {
+            // Tasks which ran may have scheduled others
+            if (pending == 0) {
+                stopTicker();
+            }
+        }
+    }
+
+    // Called with slots held
+    private void stopTicker() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    private static final class Entry {
+        private final Runnable task;
+        private final long due;
+
+        Entry(Runnable task, long due) {
+            this.task = task;
+            this.due = due;
+        }
+    }
+}
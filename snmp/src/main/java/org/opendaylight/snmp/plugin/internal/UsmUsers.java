@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpAuthProtocol;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.SnmpPrivProtocol;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.UsmCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.AuthMD5;
+import org.snmp4j.security.AuthSHA;
+import org.snmp4j.security.PrivAES128;
+import org.snmp4j.security.PrivAES192;
+import org.snmp4j.security.PrivAES256;
+import org.snmp4j.security.PrivDES;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+/**
+ * Keeps the USM user table of the session in line with the SNMPv3 credentials requests come with. Users are added
+ * per agent engine, with keys localized for it, so agents which know the same security name with different
+ * passphrases each keep their own user. A user is added once, on the first request to the agent, and replaced only if
+ * its credentials change. {@link MPv3} remembers the engine ID, boots and time of every agent it talked to, so only
+ * the first request to an agent pays for discovery and key localization. Discovery is a blocking round trip, so it
+ * runs on threads of its own and never on the threads handlers are created or responses are dispatched on.
+ */
+final class UsmUsers {
+    private static final Logger LOG = LoggerFactory.getLogger(UsmUsers.class);
+
+    // RFC 3414 requires passphrases of at least eight octets
+    private static final int MIN_PASSPHRASE_LENGTH = 8;
+
+    private final Snmp snmp;
+    // By engine ID and security name
+    private final ConcurrentMap<String, Credentials> users = new ConcurrentHashMap<>();
+    // Users of agents whose engine is not known yet, by agent address and security name
+    private final ConcurrentMap<PendingKey, Credentials> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Address, ListenableFuture<OctetString>> discoveries = new ConcurrentHashMap<>();
+    private final ListeningExecutorService discoveryExecutor = MoreExecutors.listeningDecorator(
+            Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("snmp-engine-discovery-%d").setDaemon(true).build()));
+
+    UsmUsers(Snmp snmp) {
+        this.snmp = snmp;
+    }
+
+    /**
+     * Checks whether the credentials ask for SNMPv3.
+     */
+    static boolean isV3(UsmCredentials credentials) {
+        return credentials != null && credentials.getSecurityName() != null;
+    }
+
+    /**
+     * Returns the security level the credentials provide.
+     */
+    static int securityLevel(UsmCredentials credentials) {
+        if (credentials.getAuthProtocol() == null) {
+            return SecurityLevel.NOAUTH_NOPRIV;
+        }
+        return credentials.getPrivProtocol() == null ? SecurityLevel.AUTH_NOPRIV : SecurityLevel.AUTH_PRIV;
+    }
+
+    /**
+     * Returns a hash of the security name, protocols and passphrases of the credentials. Results read with one set of
+     * credentials may only be shared with requests with the same set, and keys with the hash keep them apart without
+     * holding the passphrases.
+     */
+    static String fingerprint(UsmCredentials credentials) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, credentials.getSecurityName());
+        putString(hasher, credentials.getAuthProtocol() != null ? credentials.getAuthProtocol().name() : null);
+        putString(hasher, credentials.getAuthPassphrase());
+        putString(hasher, credentials.getPrivProtocol() != null ? credentials.getPrivProtocol().name() : null);
+        putString(hasher, credentials.getPrivPassphrase());
+        return hasher.hash().toString();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Makes sure the user of the credentials is in the USM user table for the engine of the target's agent, with
+     * these credentials. If MPv3 does not know the agent's engine yet, the user is added once it has been discovered,
+     * see {@link #whenRegistered(Target)}. Never blocks.
+     *
+     * @return false if the credentials are invalid or the session does not support SNMPv3
+     */
+    boolean register(UsmCredentials credentials, Target target) {
+        Credentials wanted = new Credentials(credentials);
+        String invalid = validate(credentials);
+        if (invalid != null) {
+            LOG.warn("Invalid SNMPv3 credentials of user {}: {}", wanted.securityName, invalid);
+            return false;
+        }
+        if (snmp.getUSM() == null) {
+            LOG.warn("SNMPv3 is not available, no USM in the SNMP session");
+            return false;
+        }
+
+        OctetString engineId = knownEngineId(target.getAddress());
+        if (engineId != null) {
+            addUser(engineId, wanted, target.getAddress());
+        } else {
+            LOG.debug("Engine ID of {} unknown, adding SNMPv3 user {} once it is discovered", target.getAddress(),
+                    wanted.securityName);
+            pending.put(new PendingKey(target.getAddress(), wanted.securityName), wanted);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a future which completes once the user of the target is in the USM user table for the engine of its
+     * agent, or null if it already is. The engine is discovered on a thread of its own, as the discovery blocks for up
+     * to the target's timeout; requests to the same agent share one discovery. The future fails if the agent does
+     * not answer the discovery.
+     */
+    ListenableFuture<Void> whenRegistered(Target target) {
+        if (target.getVersion() != SnmpConstants.version3 || pending.isEmpty()
+                || !pending.containsKey(new PendingKey(target.getAddress(), target.getSecurityName().toString()))) {
+            return null;
+        }
+        Address address = target.getAddress();
+        SettableFuture<OctetString> started = SettableFuture.create();
+        ListenableFuture<OctetString> discovery = discoveries.putIfAbsent(address, started);
+        if (discovery == null) {
+            discovery = started;
+            started.addListener(() -> discoveries.remove(address, started), MoreExecutors.directExecutor());
+            try {
+                started.setFuture(discoveryExecutor.submit(() -> discover(target)));
+            } catch (RejectedExecutionException e) {
+                started.setException(e);
+            }
+        }
+        return Futures.transform(discovery, engineId -> {
+            for (Map.Entry<PendingKey, Credentials> entry : pending.entrySet()) {
+                if (entry.getKey().address.equals(address)) {
+                    addUser(engineId, entry.getValue(), address);
+                    pending.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            return null;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Stops discovering engines. Discoveries already running finish, later requests which need one fail.
+     */
+    void close() {
+        discoveryExecutor.shutdown();
+    }
+
+    private OctetString discover(Target target) throws IOException {
+        OctetString engineId = knownEngineId(target.getAddress());
+        if (engineId == null) {
+            byte[] discovered = snmp.discoverAuthoritativeEngineID(target.getAddress(), target.getTimeout());
+            engineId = discovered != null && discovered.length > 0 ? new OctetString(discovered) : null;
+        }
+        if (engineId == null) {
+            throw new EngineDiscoveryException(target.getAddress());
+        }
+        return engineId;
+    }
+
+    private OctetString knownEngineId(Address address) {
+        MPv3 mpv3 = (MPv3) snmp.getMessageProcessingModel(MPv3.ID);
+        OctetString engineId = mpv3 != null ? mpv3.getEngineID(address) : null;
+        return engineId != null && engineId.length() > 0 ? engineId : null;
+    }
+
+    private void addUser(OctetString engineId, Credentials wanted, Address address) {
+        String key = engineId.toHexString() + '/' + wanted.securityName;
+        if (wanted.equals(users.get(key))) {
+            return;
+        }
+
+        OctetString securityName = new OctetString(wanted.securityName);
+        UsmUser user = new UsmUser(securityName,
+                authProtocol(wanted.authProtocol), passphrase(wanted.authPassphrase),
+                privProtocol(wanted.privProtocol), passphrase(wanted.privPassphrase));
+        synchronized (this) {
+            Credentials previous = users.get(key);
+            if (wanted.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                LOG.info("Credentials of SNMPv3 user {} on {} changed", wanted.securityName, address);
+            }
+            // Replaces the user of the engine along with the keys localized from its previous passphrases
+            snmp.getUSM().addUser(securityName, engineId, user);
+            users.put(key, wanted);
+        }
+    }
+
+    private static String validate(UsmCredentials credentials) {
+        if (credentials.getPrivProtocol() != null && credentials.getAuthProtocol() == null) {
+            return "privacy requires authentication";
+        }
+        if (credentials.getAuthProtocol() != null && !isValidPassphrase(credentials.getAuthPassphrase())) {
+            return "authentication passphrase must have at least " + MIN_PASSPHRASE_LENGTH + " characters";
+        }
+        if (credentials.getPrivProtocol() != null && !isValidPassphrase(credentials.getPrivPassphrase())) {
+            return "privacy passphrase must have at least " + MIN_PASSPHRASE_LENGTH + " characters";
+        }
+        return null;
+    }
+
+    private static boolean isValidPassphrase(String passphrase) {
+        return passphrase != null && passphrase.length() >= MIN_PASSPHRASE_LENGTH;
+    }
+
+    private static OctetString passphrase(String passphrase) {
+        return passphrase != null ? new OctetString(passphrase) : null;
+    }
+
+    private static OID authProtocol(SnmpAuthProtocol protocol) {
+        if (protocol == null) {
+            return null;
+        }
+        switch (protocol) {
+            case MD5:
+                return AuthMD5.ID;
+            case SHA:
+                return AuthSHA.ID;
+            default:
+                throw new IllegalArgumentException("Unsupported authentication protocol " + protocol);
+        }
+    }
+
+    private static OID privProtocol(SnmpPrivProtocol protocol) {
+        if (protocol == null) {
+            return null;
+        }
+        switch (protocol) {
+            case DES:
+                return PrivDES.ID;
+            case AES128:
+                return PrivAES128.ID;
+            case AES192:
+                return PrivAES192.ID;
+            case AES256:
+                return PrivAES256.ID;
+            default:
+                throw new IllegalArgumentException("Unsupported privacy protocol " + protocol);
+        }
+    }
+
+    private static final class PendingKey {
+        private final Address address;
+        private final String securityName;
+
+        PendingKey(Address address, String securityName) {
+            this.address = address;
+            this.securityName = securityName;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, securityName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) obj;
+            return address.equals(other.address) && securityName.equals(other.securityName);
+        }
+    }
+
+    /**
+     * Signals an agent which did not answer the discovery of its engine.
+     */
+    static final class EngineDiscoveryException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        EngineDiscoveryException(Address address) {
+            super("Engine ID of " + address + " could not be discovered");
+        }
+    }
+
+    private static final class Credentials {
+        private final String securityName;
+        private final SnmpAuthProtocol authProtocol;
+        private final String authPassphrase;
+        private final SnmpPrivProtocol privProtocol;
+        private final String privPassphrase;
+
+        Credentials(UsmCredentials credentials) {
+            securityName = credentials.getSecurityName();
+            authProtocol = credentials.getAuthProtocol();
+            authPassphrase = credentials.getAuthPassphrase();
+            privProtocol = credentials.getPrivProtocol();
+            privPassphrase = credentials.getPrivPassphrase();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(securityName, authProtocol, authPassphrase, privProtocol, privPassphrase);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Credentials)) {
+                return false;
+            }
+            Credentials other = (Credentials) obj;
+            return securityName.equals(other.securityName) && authProtocol == other.authProtocol
+                    && Objects.equals(authPassphrase, other.authPassphrase) && privProtocol == other.privProtocol
+                    && Objects.equals(privPassphrase, other.privPassphrase);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.WalkChunk;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.WalkChunkBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.walk.chunk.Results;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.snmp.rev140922.walk.chunk.ResultsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Publishes the chunks of a streaming walk as walk-chunk notifications. Each notification is put from the publish
+ * executor, where it waits while the notification queue is full, which in turn holds the walk back without taking
+ * request executor threads. The last chunk is offered without waiting if it cannot be put, so that subscribers learn
+ * that the walk ended.
+ */
+final class WalkChunkPublisher implements WalkListener {
+    private static final Logger LOG = LoggerFactory.getLogger(WalkChunkPublisher.class);
+
+    private final BigInteger walkId;
+    private final NotificationPublishService notificationPublishService;
+    private final Executor executor;
+    // Chunks are handed over one at a time, never concurrently
+    private long sequence;
+
+    WalkChunkPublisher(BigInteger walkId, NotificationPublishService notificationPublishService, Executor executor) {
+        this.walkId = walkId;
+        this.notificationPublishService = notificationPublishService;
+        this.executor = executor;
+    }
+
+    @Override
+    public ListenableFuture<?> onBindings(List<VariableBinding> bindings) {
+        List<Results> results = new ArrayList<>(bindings.size());
+        for (VariableBinding binding : bindings) {
+            results.add(new ResultsBuilder()
+                    .setOid(binding.getOid().toString())
+                    .setValue(binding.getVariable().toString())
+                    .build());
+        }
+        return publish(newChunk().setResults(results).build());
+    }
+
+    @Override
+    public void onComplete() {
+        publishLast(newChunk().setLast(true).build());
+    }
+
+    @Override
+    public void onFailure(Throwable cause) {
+        publishLast(newChunk().setLast(true).setErrorMessage(String.valueOf(cause.getMessage())).build());
+    }
+
+    private WalkChunkBuilder newChunk() {
+        return new WalkChunkBuilder()
+                .setWalkId(walkId)
+                .setSequence(sequence++)
+                .setLast(false);
+    }
+
+    private ListenableFuture<?> publish(WalkChunk chunk) {
+        ListenableFutureTask<Void> task = ListenableFutureTask.create(() -> {
+            notificationPublishService.putNotification(chunk);
+            return null;
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Failed to publish chunk {} of walk {}", chunk.getSequence(), walkId, e);
+            return Futures.immediateFailedFuture(e);
+        }
+        return task;
+    }
+
+    private void publishLast(WalkChunk chunk) {
+        Futures.addCallback(publish(chunk), new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                // Delivered
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                if (notificationPublishService.offerNotification(chunk) == NotificationPublishService.REJECTED) {
+                    LOG.warn("Dropped last chunk {} of walk {}, notification queue full", chunk.getSequence(),
+                            walkId);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.List;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Receives the results of a streaming walk, one chunk per response from the agent, instead of the whole subtree at
+ * the end. The methods are called one at a time, in walk order.
+ */
+public interface WalkListener {
+
+    /**
+     * Receives the bindings of one response. The agent is only asked for the next chunk once the returned future
+     * completes, so a slow consumer slows the walk down rather than letting chunks pile up. A failed future stops
+     * the walk.
+     */
+    ListenableFuture<?> onBindings(List<VariableBinding> bindings);
+
+    /**
+     * Called after the last chunk once the end of the subtree was reached.
+     */
+    void onComplete();
+
+    /**
+     * Called instead of {@link #onComplete()} if the walk stopped early.
+     */
+    void onFailure(Throwable cause);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.snmp.plugin.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ieee.types.rev080522.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Counter64;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.PhysAddress;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Timestamp;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Timeticks;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.InterfaceIndex;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.InterfaceIndexOrZero;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.smiv2._if.mib.rev000614.interfaces.group.IfEntryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Measures decoding of a synthetic IfEntry walk into {@link IfEntryBuilder}s, with the precompiled column decoders and,
+ * as baseline, with the per-binding reflection and string index parsing they replaced. Run with
+ * {@code java -cp target/test-classes:<test classpath> org.opendaylight.snmp.plugin.internal.MibTableBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MibTableBenchmark {
+
+    @Param("10000")
+    private int rows;
+
+    private MibTable<IfEntryBuilder> mibTable;
+    private List<ColumnDecoder<IfEntryBuilder>> columns;
+    private List<List<VariableBinding>> walks;
+    private List<Method> setters;
+
+    @Setup
+    public void setUp() {
+        mibTable = new MibTable<>((SnmpSession) null, new Ipv4Address("10.10.10.10"), "public", IfEntryBuilder.class);
+        columns = TableDecoder.forBuilder(IfEntryBuilder.class).getColumns();
+        walks = new ArrayList<>(columns.size());
+        for (ColumnDecoder<IfEntryBuilder> column : columns) {
+            int[] prefix = column.getColumn().getValue();
+            int columnId = prefix[prefix.length - 1];
+            List<VariableBinding> walk = new ArrayList<>(rows);
+            for (int i = 1; i <= rows; i++) {
+                walk.add(new VariableBinding(new OID(prefix, i), syntheticValue(columnId, i)));
+            }
+            walks.add(walk);
+        }
+        setters = new ArrayList<>(columns.size());
+        for (ColumnDecoder<IfEntryBuilder> column : columns) {
+            setters.add(setterFor(column.getColumn()));
+        }
+    }
+
+    private static Method setterFor(OID column) {
+        for (Method method : IfEntryBuilder.class.getMethods()) {
+            org.opendaylight.snmp.OID oid = method.getAnnotation(org.opendaylight.snmp.OID.class);
+            if (oid != null && column.equals(new OID(oid.value()))) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("No setter for " + column);
+    }
+
+    @Benchmark
+    public Map<Integer, IfEntryBuilder> decodeIfTableWalk() {
+        Map<Integer, IfEntryBuilder> result = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            mibTable.decodeColumn(columns.get(i), walks.get(i), result);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Map<Integer, IfEntryBuilder> decodeIfTableWalkReflective() throws ReflectiveOperationException {
+        Map<Integer, IfEntryBuilder> result = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            ReflectiveDecoder.decodeColumn(setters.get(i), columns.get(i).getColumn().toString(), walks.get(i),
+                    result);
+        }
+        return result;
+    }
+
+    private static Variable syntheticValue(int columnId, int row) {
+        switch (columnId) {
+            case 2:
+                return new OctetString("GigabitEthernet0/0/" + row);
+            case 5:
+            case 21:
+                return new Gauge32(1000000000L);
+            case 6:
+                return new OctetString(new byte[] {0, 0x1b, 0x2c, 0x3d, (byte) (row >> 8), (byte) row});
+            case 7:
+            case 8:
+                return new Integer32(1);
+            case 9:
+                return new TimeTicks(row * 100L);
+            case 22:
+                return new OID(new int[] {0, 0});
+            default:
+                return columnId >= 10 ? new Counter32(row * 1000L) : new Integer32(row);
+        }
+    }
+
+    /**
+     * The decoding of MibTable before the column decoders: for every binding, the setter's parameter type is matched
+     * against each known type in turn, the row index is parsed from the OID string, and the setter is invoked through
+     * reflection.
+     */
+    private static final class ReflectiveDecoder {
+        private ReflectiveDecoder() {
+        }
+
+        @SuppressWarnings("checkstyle:IllegalCatch")
+        static void decodeColumn(Method method, String column, List<VariableBinding> variableBindings,
+                Map<Integer, IfEntryBuilder> rows) throws ReflectiveOperationException {
+            OID baseOID = new OID(column);
+            for (VariableBinding variableBinding : variableBindings) {
+                OID snmpOID = variableBinding.getOid();
+                if (!snmpOID.startsWith(baseOID)) {
+                    continue;
+                }
+                Variable variable = variableBinding.getVariable();
+                Class<?> objectType = method.getParameterTypes()[0];
+                Object setObject = null;
+                if (objectType.equals(org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types
+                        .rev130715.Counter32.class)) {
+                    setObject = new org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types
+                            .rev130715.Counter32(variable.toLong());
+                } else if (objectType.equals(Counter64.class)) {
+                    setObject = new Counter64(new BigInteger(variable.toString()));
+                } else if (objectType.equals(MacAddress.class)) {
+                    setObject = new MacAddress(((OctetString) variable).toHexString(':'));
+                } else if (objectType.equals(Ipv4Address.class)) {
+                    setObject = new Ipv4Address(variable.toString());
+                } else if (objectType.equals(Long.class)) {
+                    setObject = variable.toLong();
+                } else if (objectType.equals(Integer.class)) {
+                    setObject = variable.toInt();
+                } else if (objectType.equals(InterfaceIndexOrZero.class)) {
+                    setObject = new InterfaceIndexOrZero(Integer.valueOf(variable.toString()));
+                } else if (objectType.equals(Timestamp.class)) {
+                    setObject = new Timestamp(variable.toLong());
+                } else if (Enum.class.isAssignableFrom(objectType)) {
+                    setObject = objectType.getEnumConstants()[variable.toInt()];
+                } else if (objectType.equals(PhysAddress.class)) {
+                    setObject = new PhysAddress(variable.toString());
+                } else if (objectType.equals(String.class)) {
+                    setObject = variable.toString();
+                } else if (objectType.equals(org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types
+                        .rev130715.Gauge32.class)) {
+                    setObject = new org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types
+                            .rev130715.Gauge32(variable.toLong());
+                } else if (objectType.equals(InterfaceIndex.class)) {
+                    setObject = new InterfaceIndex(variable.toInt());
+                } else if (objectType.equals(Timeticks.class)) {
+                    setObject = new Timeticks(((TimeTicks) variable).toMilliseconds());
+                }
+                if (setObject == null) {
+                    continue;
+                }
+
+                String[] splitString = snmpOID.toString().split("\\.");
+                Integer index = Integer.valueOf(splitString[splitString.length - 1]);
+                IfEntryBuilder builderObject = rows.get(index);
+                if (builderObject == null) {
+                    builderObject = IfEntryBuilder.class.newInstance();
+                    rows.put(index, builderObject);
+                }
+                try {
+                    method.invoke(builderObject, setObject);
+                } catch (InvocationTargetException | IllegalArgumentException e) {
+                    // As before, values the setter rejects are skipped
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MibTableBenchmark.class.getSimpleName()).build()).run();
+    }
+}